@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+
+// Replaces file contents so that readers never see a partially written file: the bytes go to
+// a temporary sibling that is renamed over the original. A symbolic link is followed, so the
+// file it points to is replaced and the link stays a link. The temporary file is given the
+// original's permissions, owner, group and ACL; when the owner or group cannot be carried
+// over (they belong to another user) the file is written in place instead, which keeps them.
+class AtomicFiles {
+
+    static void replace(Path target, byte[] bytes) throws IOException {
+        if (!Files.exists(target)) {
+            Path parent = target.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            move(Files.createTempFile(parent, "." + target.getFileName(), ".tmp"), target, bytes);
+            return;
+        }
+
+        Path real = target.toRealPath();
+        Path temp = Files.createTempFile(real.getParent(), "." + real.getFileName(), ".tmp");
+        boolean attributesCopied;
+        try {
+            attributesCopied = copyAttributes(real, temp);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        if (attributesCopied) {
+            move(temp, real, bytes);
+        } else {
+            Files.deleteIfExists(temp);
+            Files.write(real, bytes);
+        }
+    }
+
+    private static void move(Path temp, Path target, byte[] bytes) throws IOException {
+        try {
+            Files.write(temp, bytes);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // False if the temporary file cannot be made to look like the original
+    private static boolean copyAttributes(Path original, Path temp) throws IOException {
+        FileStore store = Files.getFileStore(original);
+        if (store.supportsFileAttributeView(PosixFileAttributeView.class)) {
+            PosixFileAttributes attributes = Files.readAttributes(original, PosixFileAttributes.class);
+            PosixFileAttributeView view = Files.getFileAttributeView(temp, PosixFileAttributeView.class);
+            try {
+                PosixFileAttributes created = view.readAttributes();
+                if (!created.owner().equals(attributes.owner())) {
+                    view.setOwner(attributes.owner());
+                }
+                if (!created.group().equals(attributes.group())) {
+                    view.setGroup(attributes.group());
+                }
+            } catch (IOException e) {
+                return false;
+            }
+            view.setPermissions(attributes.permissions());
+        }
+        if (store.supportsFileAttributeView(AclFileAttributeView.class)) {
+            AclFileAttributeView view = Files.getFileAttributeView(temp, AclFileAttributeView.class);
+            AclFileAttributeView originalView = Files.getFileAttributeView(original, AclFileAttributeView.class);
+            try {
+                if (!view.getOwner().equals(originalView.getOwner())) {
+                    view.setOwner(originalView.getOwner());
+                }
+                view.setAcl(originalView.getAcl());
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
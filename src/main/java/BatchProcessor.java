@@ -0,0 +1,95 @@
+import java.io.File;
+import java.util.*;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.*;
+
+// Parses the whole source set with a single ASTParser.createASTs call. All units share one
+// lookup environment built from the classpath and the source directory, so when a selected
+// module needs bindings (NullabilityRefactoring.isField, ...) they resolve and each referenced
+// type is resolved once for the batch rather than once per file. ASTs are refactored and written as
+// the requestor receives them and are not retained, so memory does not grow with the batch.
+class BatchProcessor {
+
+    private final RunContext context;
+    private final Options options;
+
+    BatchProcessor(RunContext context) {
+        this.context = context;
+        this.options = context.options;
+    }
+
+    void run(List<File> files) {
+        Map<String, File> pending = new LinkedHashMap<>();
+        for (File file : files) {
+            if (context.manifest != null && reportIfUnchanged(file)) {
+                continue;
+            }
+            pending.put(file.getPath(), file);
+        }
+        String[] sourcePaths = pending.keySet().toArray(new String[0]);
+        String[] encodings = new String[sourcePaths.length];
+        Arrays.fill(encodings, "UTF-8");
+
+        ASTParser parser = ASTParser.newParser(AST.JLS15);
+        parser.setKind(ASTParser.K_COMPILATION_UNIT);
+        Map<String, String> compilerOptions = JavaCore.getOptions();
+        JavaCore.setComplianceOptions(JavaCore.VERSION_15, compilerOptions);
+        context.parserProfile.configure(parser, compilerOptions);
+        parser.setEnvironment(context.classpath != null ? context.classpath.classpath() : new String[0],
+                new String[] { options.targetDir },
+                new String[] { "UTF-8" }, true);
+
+        parser.createASTs(sourcePaths, encodings, new String[0], new FileASTRequestor() {
+            @Override
+            public void acceptAST(String sourceFilePath, CompilationUnit ast) {
+                File file = pending.remove(sourceFilePath);
+                if (file == null) {
+                    return;
+                }
+                context.log.file("Processing file: " + file.getPath());
+                VGRTool.report(processUnit(file, ast), context);
+            }
+        }, null);
+
+        // Units the compiler could not hand back (e.g. unreadable files) still count as failures
+        for (File file : pending.values()) {
+            context.log.file("Processing file: " + file.getPath());
+            FileResult result = new FileResult(file);
+            result.error = new IllegalStateException("No AST was produced for " + file.getPath());
+            VGRTool.report(result, context);
+        }
+    }
+
+    // Unchanged files, and files the facts cache shows no selected module would change, are
+    // left out of the batch entirely so the compiler never parses them. Files are only read
+    // ahead of the batch for the manifest, since the batch reads every file again.
+    private boolean reportIfUnchanged(File file) {
+        FileResult result = new FileResult(file);
+        try {
+            VGRTool.readSource(file, result, context);
+        } catch (Exception e) {
+            return false;
+        }
+        if (context.isUnchanged(result)) {
+            result.skipped = true;
+        } else if (!VGRTool.leftAloneByFacts(result, context)) {
+            return false;
+        }
+        context.log.file("Processing file: " + file.getPath());
+        VGRTool.report(result, context);
+        return true;
+    }
+
+    private FileResult processUnit(File file, CompilationUnit cu) {
+        FileResult result = new FileResult(file);
+        context.started(file);
+        try {
+            String content = VGRTool.readSource(file, result, context);
+            String refactoredSourceCode = VGRTool.refactorUnit(cu, content, context, result);
+            VGRTool.saveResult(result, refactoredSourceCode, context);
+        } catch (Exception e) {
+            result.error = e;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,148 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Journal of the files a run has finished, so that a run that dies part way can be resumed.
+// Each finished file is appended as a "<hash>\t<path>" line holding the hash of the content
+// it was left with; lines are buffered and flushed in batches, so a crash loses at most the
+// last batch, which is then simply processed again. The journal is removed when the run
+// completes.
+//
+// The journal file is only created once the run rewrites its first file. Until then the
+// finished files are held in memory: a run that dies before writing anything has nothing to
+// resume, and a run that writes nothing leaves nothing behind in the state directory.
+//
+// With --resume the journal of the interrupted run is read first, and a file whose current
+// content still matches its journal entry is skipped. A journal written with a different
+// tool version or module list is ignored.
+class Checkpoint {
+
+    static final String FILE_NAME = "checkpoint.tsv";
+    private static final int FLUSH_RECORDS = 256;
+    private static final long FLUSH_NANOS = 1_000_000_000L;
+
+    private final Path path;
+    private final String configKey;
+    private final Map<String, String> completed;
+    // Whether the journal of the resumed run is continued rather than replaced
+    private final boolean append;
+    // Lines of the files finished before the first rewrite, while there is no writer yet
+    private final List<String> pending = new ArrayList<>();
+    private BufferedWriter writer;
+    private boolean created;
+    private int unflushed;
+    private long lastFlush = System.nanoTime();
+
+    private Checkpoint(Path path, String configKey, Map<String, String> completed, boolean append) {
+        this.path = path;
+        this.configKey = configKey;
+        this.completed = completed;
+        this.append = append;
+    }
+
+    static Checkpoint open(Path stateDir, String configKey, boolean resume) throws IOException {
+        Path path = stateDir.resolve(FILE_NAME);
+        Map<String, String> completed = resume ? load(path, configKey) : null;
+        boolean append = completed != null;
+        return new Checkpoint(path, configKey, append ? completed : new HashMap<>(), append);
+    }
+
+    // The journal of the interrupted run for a worker process, which only checks against it;
+    // the coordinator appends the files its workers finish
+    static Checkpoint read(Path stateDir, String configKey) throws IOException {
+        Path path = stateDir.resolve(FILE_NAME);
+        Map<String, String> completed = load(path, configKey);
+        return new Checkpoint(path, configKey, completed != null ? completed : new HashMap<>(), false);
+    }
+
+    // Null when there is no journal or it was written with a different configuration
+    private static Map<String, String> load(Path path, String configKey) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(header(configKey))) {
+            return null;
+        }
+        Map<String, String> completed = new HashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            int tab = line.indexOf('\t');
+            if (tab > 0) {
+                completed.put(line.substring(tab + 1), line.substring(0, tab));
+            }
+        }
+        return completed;
+    }
+
+    int resumableFiles() {
+        return completed.size();
+    }
+
+    boolean isCompleted(File file, String hash) {
+        return hash != null && hash.equals(completed.get(Manifest.key(file)));
+    }
+
+    // Written tells whether the file was rewritten, which starts the journal file
+    synchronized void record(File file, String hash, boolean written) throws IOException {
+        String line = hash + "\t" + Manifest.key(file);
+        if (writer == null) {
+            if (!written) {
+                pending.add(line);
+                return;
+            }
+            createWriter();
+        }
+        writer.write(line);
+        writer.newLine();
+        if (++unflushed >= FLUSH_RECORDS || System.nanoTime() - lastFlush >= FLUSH_NANOS) {
+            writer.flush();
+            unflushed = 0;
+            lastFlush = System.nanoTime();
+        }
+    }
+
+    private void createWriter() throws IOException {
+        Path stateDir = path.getParent();
+        created = !Files.isDirectory(stateDir);
+        Files.createDirectories(stateDir);
+        writer = append
+                ? Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.APPEND)
+                : Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        if (!append) {
+            writer.write(header(configKey));
+            writer.newLine();
+        }
+        for (String line : pending) {
+            writer.write(line);
+            writer.newLine();
+        }
+        pending.clear();
+    }
+
+    // The run finished, so there is nothing left to resume; a state directory the journal
+    // created is removed again if nothing else was put there
+    synchronized void complete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+        if (created) {
+            try {
+                Files.deleteIfExists(path.getParent());
+            } catch (DirectoryNotEmptyException e) {
+                // Other run state is kept there
+            }
+        }
+    }
+
+    synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    private static String header(String configKey) {
+        return "# " + configKey;
+    }
+}
@@ -0,0 +1,169 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipFile;
+
+// The classpath and sourcepath that bindings are resolved against, from --classpath and
+// --classpath-file. The entries are resolved once and every parser of the run, on any
+// thread, is handed the same arrays.
+//
+// Every jar on the classpath is kept open for as long as the environment lives. The JDK
+// shares one parsed central directory between all ZipFiles open on the same file, so the
+// ZipFile that JDT opens for each parse finds the jar already indexed instead of reading
+// its directory again. The environment is cached across runs, so requests to a daemon with
+// an unchanged classpath reuse it; it is rebuilt when an entry is added, removed or modified.
+class ClasspathEnvironment {
+
+    // group:artifact:type[:classifier]:version[:scope], as listed by mvn dependency:list
+    private static final Pattern MAVEN_COORDINATES = Pattern.compile("[\\w.\\-]+(:[\\w.\\-]+){3,5}");
+
+    private static ClasspathEnvironment cached;
+
+    private final String[] classpath;
+    private final String[] sourcepath;
+    private final String key;
+    private final List<ZipFile> openJars;
+    private final int missingEntries;
+
+    private ClasspathEnvironment(String[] classpath, String[] sourcepath, String key, List<ZipFile> openJars,
+            int missingEntries) {
+        this.classpath = classpath;
+        this.sourcepath = sourcepath;
+        this.key = key;
+        this.openJars = openJars;
+        this.missingEntries = missingEntries;
+    }
+
+    static synchronized ClasspathEnvironment forOptions(Options options) throws IOException {
+        List<String> entries = new ArrayList<>();
+        for (String entry : options.classpath.split(File.pathSeparator)) {
+            addEntry(entries, entry);
+        }
+        if (options.classpathFile != null) {
+            readListing(Paths.get(options.classpathFile), entries);
+        }
+
+        Set<String> existing = new LinkedHashSet<>();
+        int missing = 0;
+        StringBuilder key = new StringBuilder(options.targetDir);
+        for (String entry : entries) {
+            File file = new File(entry);
+            if (!file.exists()) {
+                missing++;
+            } else if (existing.add(entry)) {
+                key.append('\n').append(entry).append('\t').append(file.length()).append('\t').append(file.lastModified());
+            }
+        }
+
+        if (cached != null && cached.key.equals(key.toString())) {
+            return cached;
+        }
+        if (cached != null) {
+            cached.close();
+            cached = null;
+        }
+        List<ZipFile> openJars = new ArrayList<>();
+        for (String entry : existing) {
+            if (new File(entry).isFile()) {
+                try {
+                    openJars.add(new ZipFile(entry));
+                } catch (IOException e) {
+                    // Not a readable archive; JDT will skip it as well
+                }
+            }
+        }
+        cached = new ClasspathEnvironment(existing.toArray(new String[0]), new String[] { options.targetDir },
+                key.toString(), openJars, missing);
+        return cached;
+    }
+
+    private static void addEntry(List<String> entries, String entry) {
+        entry = entry.trim();
+        if (entry.isEmpty()) {
+            return;
+        }
+        // A directory of jars, as javac accepts it
+        if (entry.endsWith(File.separator + "*") || entry.equals("*")) {
+            File dir = new File(entry.substring(0, entry.length() - 1));
+            File[] jars = dir.listFiles((parent, name) -> name.endsWith(".jar") || name.endsWith(".JAR"));
+            if (jars != null) {
+                Arrays.sort(jars);
+                for (File jar : jars) {
+                    entries.add(jar.toPath().toAbsolutePath().normalize().toString());
+                }
+            }
+            return;
+        }
+        entries.add(Paths.get(entry).toAbsolutePath().normalize().toString());
+    }
+
+    // A dependency listing written by the build: classpath strings such as the output of
+    // mvn dependency:build-classpath -Dmdep.outputFile=<file> or a printed Gradle
+    // runtimeClasspath.asPath, one path per line, or the coordinates of mvn dependency:list,
+    // which are looked up in the local Maven repository
+    private static void readListing(Path listing, List<String> entries) throws IOException {
+        Path repository = localMavenRepository();
+        for (String line : Files.readAllLines(listing, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            Matcher coordinates = MAVEN_COORDINATES.matcher(line);
+            if (coordinates.lookingAt() && !new File(line).exists()) {
+                entries.add(mavenArtifact(repository, coordinates.group().split(":")).toString());
+                continue;
+            }
+            Path base = listing.toAbsolutePath().getParent();
+            for (String entry : line.split(File.pathSeparator)) {
+                if (!entry.isBlank()) {
+                    addEntry(entries, base.resolve(entry.trim()).toString());
+                }
+            }
+        }
+    }
+
+    private static Path mavenArtifact(Path repository, String[] parts) {
+        // With 4 parts there is no scope, with 6 there is a classifier before the version
+        String group = parts[0];
+        String artifact = parts[1];
+        String type = parts[2];
+        String classifier = parts.length == 6 ? parts[3] : null;
+        String version = parts.length == 6 ? parts[4] : parts[3];
+        String name = artifact + "-" + version + (classifier != null ? "-" + classifier : "") + "."
+                + (type.equals("bundle") || type.equals("test-jar") ? "jar" : type);
+        return repository.resolve(group.replace('.', File.separatorChar)).resolve(artifact).resolve(version).resolve(name);
+    }
+
+    private static Path localMavenRepository() {
+        String configured = System.getProperty("maven.repo.local");
+        return configured != null ? Paths.get(configured)
+                : Paths.get(System.getProperty("user.home"), ".m2", "repository");
+    }
+
+    String[] classpath() {
+        return classpath;
+    }
+
+    String[] sourcepath() {
+        return sourcepath;
+    }
+
+    String format() {
+        return "Classpath: " + classpath.length + " entries, " + openJars.size() + " jars held open"
+                + (missingEntries > 0 ? ", " + missingEntries + " missing entries skipped" : "");
+    }
+
+    private void close() {
+        for (ZipFile jar : openJars) {
+            try {
+                jar.close();
+            } catch (IOException e) {
+                // Nothing else holds it
+            }
+        }
+    }
+}
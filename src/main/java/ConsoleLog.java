@@ -0,0 +1,115 @@
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Console output of a run. Callers only enqueue lines, so worker threads never wait on the
+// terminal; a background thread drains the queue in batches and flushes once per batch
+// instead of once per line. Lines keep the order in which they were logged, across stdout
+// and stderr.
+//
+// Per-file lines are only printed with --verbose; --quiet also drops the informational
+// lines and leaves the final summary and errors.
+class ConsoleLog {
+
+    enum Level { QUIET, NORMAL, VERBOSE }
+
+    private static final Line END = new Line(null, null);
+
+    private final PrintStream out;
+    private final PrintStream err;
+    private final Level level;
+    private final BlockingQueue<Line> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+
+    ConsoleLog(PrintStream out, PrintStream err, Level level) {
+        this.out = out;
+        this.err = err;
+        this.level = level;
+        this.writer = new Thread(this::drain, "vgr-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // One line per processed file
+    void file(String message) {
+        if (level == Level.VERBOSE) {
+            queue.add(new Line(out, message));
+        }
+    }
+
+    // Headers, per-pass and per-stage statistics, progress
+    void info(String message) {
+        if (level != Level.QUIET) {
+            queue.add(new Line(out, message));
+        }
+    }
+
+    void summary(String message) {
+        queue.add(new Line(out, message));
+    }
+
+    void error(String message, Throwable error) {
+        if (error != null) {
+            StringWriter trace = new StringWriter();
+            error.printStackTrace(new PrintWriter(trace));
+            message = message + System.lineSeparator() + trace.toString().stripTrailing();
+        }
+        queue.add(new Line(err, message));
+    }
+
+    // Writes out everything logged so far and stops the writer thread
+    void close() {
+        queue.add(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Consecutive lines for the same stream go out as one write, since System.out and
+    // System.err flush on every println
+    private void drain() {
+        List<Line> batch = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                PrintStream target = null;
+                for (Line line : batch) {
+                    if (line.stream != target && target != null) {
+                        target.print(text);
+                        target.flush();
+                        text.setLength(0);
+                    }
+                    if (line == END) {
+                        return;
+                    }
+                    target = line.stream;
+                    text.append(line.message).append(System.lineSeparator());
+                }
+                target.print(text);
+                target.flush();
+                text.setLength(0);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Line {
+        final PrintStream stream;
+        final String message;
+
+        Line(PrintStream stream, String message) {
+            this.stream = stream;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// SHA-256 of file contents, as lowercase hex. Used to recognise files that have not
+// changed since they were last processed.
+class ContentHash {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    static String of(byte[] bytes) {
+        return of(ByteBuffer.wrap(bytes));
+    }
+
+    // Consumes the buffer's remaining bytes
+    static String of(ByteBuffer bytes) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(bytes);
+            byte[] digest = sha256.digest();
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+                hex[2 * i + 1] = HEX[digest[i] & 0xf];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
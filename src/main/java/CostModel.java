@@ -0,0 +1,97 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Parse and rewrite times of previous runs, used to hand out the most expensive files first
+// when several workers share the work. A huge file picked up last keeps one worker busy long
+// after the others have run out of work; starting it first lets the small files fill in
+// around it (longest-processing-time-first scheduling).
+//
+// Stored in the state directory as "<nanos>\t<bytes>\t<path>" lines. A file that changed
+// size since it was measured is predicted proportionally to its new size; a file never seen
+// before is predicted from its size and the average time per byte of the measured files.
+class CostModel {
+
+    static final String FILE_NAME = "costs.tsv";
+
+    private final Path path;
+    private final Map<String, long[]> costs = new ConcurrentHashMap<>();
+
+    private CostModel(Path path) {
+        this.path = path;
+    }
+
+    static CostModel load(Path stateDir) throws IOException {
+        CostModel model = new CostModel(stateDir.resolve(FILE_NAME));
+        if (Files.exists(model.path)) {
+            for (String line : Files.readAllLines(model.path, StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t", 3);
+                if (fields.length == 3) {
+                    try {
+                        model.costs.put(fields[2], new long[] { Long.parseLong(fields[0]), Long.parseLong(fields[1]) });
+                    } catch (NumberFormatException e) {
+                        // Skip damaged lines, the file is rewritten at the end of the run
+                    }
+                }
+            }
+        }
+        return model;
+    }
+
+    void record(File file, long nanos, long bytes) {
+        costs.put(Manifest.key(file), new long[] { nanos, bytes });
+    }
+
+    // Sorts by predicted cost, most expensive first; ties keep the discovery order
+    List<File> largestFirst(List<File> files) {
+        double nanosPerByte = averageNanosPerByte();
+        Map<File, Double> predicted = new HashMap<>();
+        for (File file : files) {
+            predicted.put(file, predict(file, nanosPerByte));
+        }
+        List<File> ordered = new ArrayList<>(files);
+        ordered.sort((a, b) -> Double.compare(predicted.get(b), predicted.get(a)));
+        return ordered;
+    }
+
+    private double predict(File file, double nanosPerByte) {
+        long bytes = file.length();
+        long[] cost = costs.get(Manifest.key(file));
+        if (cost == null) {
+            return bytes * nanosPerByte;
+        }
+        return cost[1] == bytes || cost[1] == 0 ? cost[0] : (double) cost[0] * bytes / cost[1];
+    }
+
+    // With nothing measured yet every file costs its size, which orders by size alone
+    private double averageNanosPerByte() {
+        long nanos = 0;
+        long bytes = 0;
+        for (long[] cost : costs.values()) {
+            nanos += cost[0];
+            bytes += cost[1];
+        }
+        return nanos > 0 && bytes > 0 ? (double) nanos / bytes : 1;
+    }
+
+    // Rewrites the model, dropping entries for files that no longer exist
+    void save() throws IOException {
+        Files.createDirectories(path.getParent());
+        Path temp = path.resolveSibling(FILE_NAME + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, long[]> entry : new TreeMap<>(costs).entrySet()) {
+                if (!Files.exists(Paths.get(entry.getKey()))) {
+                    continue;
+                }
+                long[] cost = entry.getValue();
+                writer.write(cost[0] + "\t" + cost[1] + "\t" + entry.getKey());
+                writer.newLine();
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,133 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// What the analysis found in each file content it parsed, keyed by the content's hash, so a
+// later run can tell without parsing that its modules would leave a file alone. The facts of
+// a file are how many nodes each known refactoring finds applicable, whether it was selected
+// or not: a run whose selected modules all have no candidates in a file would rewrite it to
+// the same text, so the file is reported as unchanged without being parsed. Unlike the
+// manifest this holds across module selections and does not care where the file lives.
+//
+// Stored in the state directory as "<hash>\t<count>,<count>,..." lines, counts in the order
+// of the module names in the header, which also names the analyzer version; a cache written
+// by another version or for another set of modules is discarded on load. Lines are kept in
+// least recently used order, and the oldest are dropped when saving to stay within
+// --facts-cache-mb.
+class FactsCache {
+
+    static final String FILE_NAME = "facts.tsv";
+    // Changed whenever what the refactorings find applicable changes
+    private static final String ANALYZER_VERSION = VGRTool.VERSION + "-1";
+
+    private final Path path;
+    private final List<String> modules;
+    private final long maxBytes;
+    private final LinkedHashMap<String, int[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int parsesAvoided;
+
+    private FactsCache(Path path, List<String> modules, long maxBytes) {
+        this.path = path;
+        this.modules = modules;
+        this.maxBytes = maxBytes;
+    }
+
+    static FactsCache load(Path stateDir, long maxBytes) throws IOException {
+        FactsCache cache = new FactsCache(stateDir.resolve(FILE_NAME), RefactoringEngine.knownRefactorings(), maxBytes);
+        if (Files.exists(cache.path)) {
+            List<String> lines = Files.readAllLines(cache.path, StandardCharsets.UTF_8);
+            if (!lines.isEmpty() && lines.get(0).equals(cache.header())) {
+                for (String line : lines.subList(1, lines.size())) {
+                    int[] counts = parseCounts(line, cache.modules.size());
+                    if (counts != null) {
+                        cache.entries.put(line.substring(0, line.indexOf('\t')), counts);
+                    }
+                }
+            }
+        }
+        return cache;
+    }
+
+    // Null for a damaged line, which is dropped when the cache is saved
+    private static int[] parseCounts(String line, int size) {
+        int tab = line.indexOf('\t');
+        if (tab <= 0) {
+            return null;
+        }
+        String[] fields = line.substring(tab + 1).split(",");
+        if (fields.length != size) {
+            return null;
+        }
+        int[] counts = new int[size];
+        try {
+            for (int i = 0; i < size; i++) {
+                counts[i] = Integer.parseInt(fields[i]);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return counts;
+    }
+
+    // Counts per module in the order of RefactoringEngine.knownRefactorings()
+    synchronized void record(String hash, int[] counts) {
+        entries.put(hash, counts);
+    }
+
+    // True if the content was analyzed before and none of the given modules found anything in it
+    synchronized boolean leavesUnchanged(String hash, List<String> selected) {
+        int[] counts = hash != null ? entries.get(hash) : null;
+        if (counts == null) {
+            return false;
+        }
+        for (String module : selected) {
+            int index = modules.indexOf(module);
+            if (index < 0 || counts[index] > 0) {
+                return false;
+            }
+        }
+        parsesAvoided++;
+        return true;
+    }
+
+    // Rewrites the cache, least recently used first, without the entries that do not fit
+    synchronized void save() throws IOException {
+        List<String> lines = new ArrayList<>(entries.size());
+        long bytes = 0;
+        for (Map.Entry<String, int[]> entry : entries.entrySet()) {
+            StringBuilder line = new StringBuilder(entry.getKey()).append('\t');
+            int[] counts = entry.getValue();
+            for (int i = 0; i < counts.length; i++) {
+                line.append(i > 0 ? "," : "").append(counts[i]);
+            }
+            lines.add(line.toString());
+            bytes += line.length() + 1;
+        }
+        int first = 0;
+        while (bytes > maxBytes && first < lines.size()) {
+            bytes -= lines.get(first++).length() + 1;
+        }
+
+        Files.createDirectories(path.getParent());
+        Path temp = path.resolveSibling(FILE_NAME + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(header());
+            writer.newLine();
+            for (String line : lines.subList(first, lines.size())) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    synchronized String format() {
+        return "Facts cache: " + parsesAvoided + " files needed no parse, " + entries.size() + " contents known";
+    }
+
+    private String header() {
+        return "# " + ANALYZER_VERSION + " " + String.join(",", modules);
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.concurrent.*;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+// Time budget for parsing and rewriting one file (--file-timeout), so a pathological file is
+// abandoned with an OperationCanceledException instead of holding its thread for minutes.
+//
+// Without bindings ASTParser.createAST looks at its monitor only once, before parsing
+// starts, so the parse itself cannot be canceled. With a budget it therefore runs on a
+// parser thread that is waited for only until the deadline; a parse still running then is
+// abandoned and finishes in the background, its result discarded. The engine's visitors poll
+// the deadline between nodes and stop cooperatively.
+//
+// An abandoned parse holds its parser thread until it finishes, if ever. The parser threads
+// are therefore capped at twice the processing threads, leaving as many again for abandoned
+// parses; with all of them taken, a file fails at once as timed out instead of adding threads.
+//
+// ASTRewrite.rewriteAST takes no monitor, and the rewrite is not moved to another thread, so
+// it cannot be cut short; the budget is checked before it starts and again before its edits
+// are applied.
+class FileDeadline extends NullProgressMonitor {
+
+    private static final ThreadPoolExecutor PARSERS = new ThreadPoolExecutor(
+            0, 2 * Runtime.getRuntime().availableProcessors(), 30, TimeUnit.SECONDS, new SynchronousQueue<>(),
+            Thread.ofPlatform().name("vgr-parse-", 0).daemon(true).factory());
+
+    private final long deadlineNanos;
+
+    private FileDeadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    // A seconds value of 0 never expires
+    static FileDeadline start(int seconds) {
+        return new FileDeadline(seconds > 0 ? System.nanoTime() + seconds * 1_000_000_000L : 0);
+    }
+
+    @Override
+    public boolean isCanceled() {
+        return super.isCanceled() || deadlineNanos != 0 && System.nanoTime() - deadlineNanos > 0;
+    }
+
+    static void limitParsers(int threads) {
+        PARSERS.setMaximumPoolSize(2 * threads);
+    }
+
+    void check() {
+        RefactoringEngine.checkCanceled(this);
+    }
+
+    // Runs the task on this thread when there is no budget, and otherwise on a parser thread
+    // that is abandoned at the deadline; the returned future completes when the task does,
+    // even if it was abandoned
+    <T> CompletableFuture<T> submit(Callable<T> task) {
+        if (deadlineNanos == 0) {
+            try {
+                return CompletableFuture.completedFuture(task.call());
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            PARSERS.execute(() -> {
+                try {
+                    future.complete(task.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new OperationCanceledException("All parser threads are held by abandoned parses"));
+        }
+        return future;
+    }
+
+    // The task's result, or OperationCanceledException once the deadline has passed
+    <T> T await(CompletableFuture<T> future) throws InterruptedException {
+        try {
+            if (deadlineNanos == 0) {
+                return future.get();
+            }
+            return future.get(Math.max(deadlineNanos - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new OperationCanceledException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
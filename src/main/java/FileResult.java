@@ -0,0 +1,28 @@
+import java.io.File;
+
+// Outcome of processing a single source file, reported by the driver once the file is done.
+class FileResult {
+
+    final File file;
+    long bytes;
+    String hash;
+    String outputHash;
+    boolean success;
+    boolean skipped;
+    boolean written;
+    // Ran out of its --file-timeout budget and was left untouched
+    boolean timedOut;
+    String diff;
+    // Bytes as read, kept only while an undo journal needs them
+    byte[] original;
+    // Rewritten bytes that a worker process leaves to the coordinator to write, with --undo
+    byte[] replacement;
+    // Time spent parsing and rewriting, learned by CostModel
+    long parseNanos;
+    long rewriteNanos;
+    Throwable error;
+
+    FileResult(File file) {
+        this.file = file;
+    }
+}
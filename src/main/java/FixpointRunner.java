@@ -0,0 +1,54 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+// Runs the selected modules repeatedly until they stop changing anything. One module's
+// rewrite can create work for another (IntroduceLocalVariableAndNullCheckRefactoring
+// introduces checks that SimplifyNullCheckRefactoring may then simplify), so the first pass
+// covers every discovered file and each later pass re-parses only the files the previous
+// pass rewrote. A file that was left untouched cannot change in a later pass, because the
+// modules only look at one compilation unit at a time.
+class FixpointRunner {
+
+    private final RunContext context;
+
+    FixpointRunner(RunContext context) {
+        this.context = context;
+    }
+
+    void run(VGRTool.FileSource javaFiles) throws IOException, InterruptedException {
+        List<File> rewritten = Collections.synchronizedList(new ArrayList<>());
+        context.resultListener = result -> {
+            if (result.written) {
+                rewritten.add(result.file);
+            }
+        };
+
+        VGRTool.FileSource pending = javaFiles;
+        int pass = 1;
+        while (true) {
+            context.log.info("Fixpoint pass " + pass);
+            RunSummary passSummary = new RunSummary();
+            context.passSummary = passSummary;
+            context.reprocessing = pass > 1;
+            VGRTool.processFiles(pending, context);
+            context.log.info("Pass " + pass + ": " + passSummary.format());
+
+            if (rewritten.isEmpty()) {
+                context.log.info("Fixpoint reached after " + pass + (pass == 1 ? " pass" : " passes"));
+                break;
+            }
+            if (pass == context.options.maxPasses) {
+                context.log.info("Stopped after " + pass + " passes with " + rewritten.size()
+                        + " files still changing; raise --max-passes to continue");
+                break;
+            }
+            List<File> next = new ArrayList<>(rewritten);
+            rewritten.clear();
+            pending = next::forEach;
+            pass++;
+        }
+        context.passSummary = null;
+        context.resultListener = null;
+    }
+}
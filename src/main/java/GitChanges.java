@@ -0,0 +1,83 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+// Asks the git repository containing a directory which .java files differ from a revision,
+// so a run can be limited to those files instead of walking the whole tree.
+class GitChanges {
+
+    // The changed files among those discovery would find under the source paths, so --since
+    // honors the same --include and --exclude globs, default excludes and extra source paths
+    static List<File> changedJavaFiles(Options options) throws IOException, InterruptedException {
+        SourceDiscovery discovery = new SourceDiscovery(options);
+        List<File> files = new ArrayList<>();
+        for (String sourcePath : options.sourcePaths) {
+            Path root = Paths.get(sourcePath).toAbsolutePath().normalize();
+            if (Files.isRegularFile(root)) {
+                if (changedJavaFiles(root.getParent().toString(), options.since).contains(root.toFile())) {
+                    files.add(root.toFile());
+                }
+                continue;
+            }
+            for (File file : changedJavaFiles(root.toString(), options.since)) {
+                if (discovery.wouldVisit(root, file.toPath())) {
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static List<File> changedJavaFiles(String directory, String revision) throws IOException, InterruptedException {
+        File dir = new File(directory);
+        SortedSet<String> paths = new TreeSet<>();
+
+        // Tracked files added, copied, modified or renamed between the revision and the working tree
+        paths.addAll(git(dir, "diff", "--name-only", "-z", "--relative", "--diff-filter=ACMR",
+                revision, "--", "*.java"));
+        // New files that have never been committed
+        paths.addAll(git(dir, "ls-files", "-z", "--others", "--exclude-standard", "--", "*.java"));
+
+        List<File> files = new ArrayList<>();
+        for (String path : paths) {
+            File file = new File(dir, path);
+            if (file.isFile()) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private static List<String> git(File dir, String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command)
+                .directory(dir)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream in = process.getInputStream()) {
+            in.transferTo(output);
+        }
+        int exitCode = process.waitFor();
+        if (exitCode != 0) {
+            throw new IOException("'" + String.join(" ", command) + "' failed with exit code " + exitCode);
+        }
+
+        List<String> paths = new ArrayList<>();
+        for (String path : output.toString(StandardCharsets.UTF_8).split("\0")) {
+            if (!path.isEmpty()) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+}
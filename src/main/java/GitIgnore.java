@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// The .gitignore rules in effect for one directory: the parent directory's rules followed
+// by the rules of this directory's own .gitignore. As in git, the last matching rule wins
+// and a rule starting with '!' re-includes what an earlier rule ignored. Patterns are
+// translated to glob PathMatchers; character classes, '*', '?' and '**' are supported.
+class GitIgnore {
+
+    static final GitIgnore EMPTY = new GitIgnore(Collections.emptyList());
+
+    private final List<Rule> rules;
+
+    private GitIgnore(List<Rule> rules) {
+        this.rules = rules;
+    }
+
+    // Adds the rules of dir/.gitignore, if there is one, to the inherited rules
+    GitIgnore forDirectory(Path dir) throws IOException {
+        Path file = dir.resolve(".gitignore");
+        if (!Files.isRegularFile(file)) {
+            return this;
+        }
+        List<Rule> combined = new ArrayList<>(rules);
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            Rule rule = Rule.parse(dir, line);
+            if (rule != null) {
+                combined.add(rule);
+            }
+        }
+        return new GitIgnore(combined);
+    }
+
+    boolean isIgnored(Path path, boolean isDirectory) {
+        boolean ignored = false;
+        for (Rule rule : rules) {
+            if (rule.matches(path, isDirectory)) {
+                ignored = !rule.negated;
+            }
+        }
+        return ignored;
+    }
+
+    private static class Rule {
+        final Path base;
+        final boolean negated;
+        final boolean directoryOnly;
+        final boolean anchored;
+        final List<PathMatcher> matchers = new ArrayList<>();
+
+        private Rule(Path base, boolean negated, boolean directoryOnly, boolean anchored) {
+            this.base = base;
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+            this.anchored = anchored;
+        }
+
+        static Rule parse(Path base, String line) {
+            String pattern = line.stripTrailing();
+            if (pattern.isEmpty() || pattern.startsWith("#")) {
+                return null;
+            }
+            boolean negated = pattern.startsWith("!");
+            if (negated) {
+                pattern = pattern.substring(1);
+            }
+            boolean directoryOnly = pattern.endsWith("/");
+            if (directoryOnly) {
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+            // A slash anywhere but at the end anchors the pattern to the .gitignore's directory
+            boolean anchored = pattern.contains("/");
+            if (pattern.startsWith("/")) {
+                pattern = pattern.substring(1);
+            }
+            if (pattern.isEmpty()) {
+                return null;
+            }
+
+            Rule rule = new Rule(base, negated, directoryOnly, anchored);
+            FileSystem fileSystem = base.getFileSystem();
+            rule.matchers.add(fileSystem.getPathMatcher("glob:" + toGlob(pattern)));
+            // In git "**/" may also match zero directories
+            if (pattern.startsWith("**/")) {
+                rule.matchers.add(fileSystem.getPathMatcher("glob:" + toGlob(pattern.substring(3))));
+            }
+            if (pattern.contains("/**/")) {
+                rule.matchers.add(fileSystem.getPathMatcher("glob:" + toGlob(pattern.replace("/**/", "/"))));
+            }
+            return rule;
+        }
+
+        // Glob syntax treats braces as alternation, gitignore does not
+        private static String toGlob(String pattern) {
+            return pattern.replace("{", "\\{").replace("}", "\\}");
+        }
+
+        boolean matches(Path path, boolean isDirectory) {
+            if ((directoryOnly && !isDirectory) || !path.startsWith(base)) {
+                return false;
+            }
+            Path target = anchored ? base.relativize(path) : path.getFileName();
+            if (target == null) {
+                return false;
+            }
+            for (PathMatcher matcher : matchers) {
+                if (matcher.matches(target)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
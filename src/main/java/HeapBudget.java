@@ -0,0 +1,123 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+
+// Admission control for parsing and rewriting. A JDT AST with its bindings and rewrite
+// events takes tens of times the size of the source, so a few huge generated files processed
+// at once can exhaust the heap even though each of them fits alone. Each file reserves an
+// estimate of its footprint before it is parsed and releases it when its rewrite is done;
+// a file that does not fit waits until enough earlier files have finished.
+//
+// Files that cannot be admitted queue in arrival order. The budget the oldest of them needs
+// is held back from later arrivals, so a large file is delayed until memory frees up but is
+// not starved by a stream of small files overtaking it. A file whose estimate exceeds the
+// whole budget is admitted once nothing else is running.
+//
+// A parse abandoned at its deadline keeps its reservation until it finishes in the
+// background, since its memory is still in use, but it no longer counts as running: it may
+// never finish, and must not keep an oversized file waiting for an idle heap.
+class HeapBudget {
+
+    // Rough footprint of a parsed and rewritten unit per byte of source, measured on large
+    // generated parsers; a fixed overhead covers the parser and rewriter for tiny files
+    static final int BYTES_PER_SOURCE_BYTE = 40;
+    static final long BASE_BYTES = 256 * 1024;
+
+    private final long budget;
+    private final Deque<long[]> waiting = new ArrayDeque<>();
+    private long reserved;
+    private long abandoned;
+    private long peakReserved;
+    private int delayed;
+
+    HeapBudget(long budget) {
+        this.budget = budget;
+    }
+
+    static HeapBudget forOptions(Options options) {
+        if (options.heapBudgetMegabytes > 0) {
+            return new HeapBudget(options.heapBudgetMegabytes * 1024L * 1024L);
+        }
+        return new HeapBudget(Runtime.getRuntime().maxMemory() / 100 * options.heapPercent);
+    }
+
+    static long estimate(long sourceBytes) {
+        return BASE_BYTES + sourceBytes * BYTES_PER_SOURCE_BYTE;
+    }
+
+    // Blocks until the estimate for a source file of the given size fits; returns the reservation
+    long acquire(long sourceBytes) throws InterruptedException {
+        long need = estimate(sourceBytes);
+        synchronized (this) {
+            if (waiting.isEmpty() && (idle() || reserved + need <= budget)) {
+                admit(need);
+                return need;
+            }
+            long[] ticket = { need };
+            waiting.add(ticket);
+            try {
+                boolean counted = false;
+                while (!canAdmit(ticket)) {
+                    if (!counted) {
+                        delayed++;
+                        counted = true;
+                    }
+                    wait();
+                }
+            } finally {
+                waiting.remove(ticket);
+                notifyAll();
+            }
+            admit(need);
+            return need;
+        }
+    }
+
+    synchronized void release(long reservation) {
+        reserved -= reservation;
+        notifyAll();
+    }
+
+    // Releases the reservation once the parse is done, which may be after the file was given
+    // up on
+    void release(long reservation, CompletableFuture<?> parse) {
+        if (parse.isDone()) {
+            release(reservation);
+            return;
+        }
+        synchronized (this) {
+            abandoned += reservation;
+            notifyAll();
+        }
+        parse.whenComplete((result, e) -> releaseAbandoned(reservation));
+    }
+
+    private synchronized void releaseAbandoned(long reservation) {
+        abandoned -= reservation;
+        release(reservation);
+    }
+
+    private boolean idle() {
+        return reserved == abandoned;
+    }
+
+    // The oldest waiting file only needs room for itself (or an idle heap); the others must
+    // also leave room for it
+    private boolean canAdmit(long[] ticket) {
+        long[] oldest = waiting.peek();
+        if (oldest == ticket) {
+            return idle() || reserved + ticket[0] <= budget;
+        }
+        return reserved + ticket[0] + oldest[0] <= budget;
+    }
+
+    private void admit(long need) {
+        reserved += need;
+        peakReserved = Math.max(peakReserved, reserved);
+    }
+
+    synchronized String format() {
+        return String.format("Heap budget %d MB: peak estimated use %d MB, %d files delayed",
+                budget / (1024 * 1024), peakReserved / (1024 * 1024), delayed);
+    }
+}
@@ -0,0 +1,85 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Content hashes of the files left behind by the completed runs so far, stored in the state
+// directory as "<hash>\t<path>" lines under a header naming the tool version and modules.
+// A file whose current hash matches its entry was already processed with the same
+// configuration and can be skipped before parsing. Entries recorded with a different
+// configuration are discarded on load.
+class Manifest {
+
+    static final String FILE_NAME = "manifest.tsv";
+
+    private final Path path;
+    private final String configKey;
+    private final Map<String, String> previous;
+    private final Map<String, String> current = new ConcurrentHashMap<>();
+
+    private Manifest(Path path, String configKey, Map<String, String> previous) {
+        this.path = path;
+        this.configKey = configKey;
+        this.previous = previous;
+    }
+
+    static Manifest load(Path stateDir, String configKey) throws IOException {
+        Path path = stateDir.resolve(FILE_NAME);
+        Map<String, String> previous = new HashMap<>();
+        if (Files.exists(path)) {
+            List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+            if (!lines.isEmpty() && lines.get(0).equals(header(configKey))) {
+                for (String line : lines.subList(1, lines.size())) {
+                    int tab = line.indexOf('\t');
+                    if (tab > 0) {
+                        previous.put(line.substring(tab + 1), line.substring(0, tab));
+                    }
+                }
+            }
+        }
+        return new Manifest(path, configKey, previous);
+    }
+
+    static String key(File file) {
+        return file.toPath().toAbsolutePath().normalize().toString();
+    }
+
+    boolean isUnchanged(File file, String hash) {
+        return hash != null && hash.equals(previous.get(key(file)));
+    }
+
+    void record(File file, String hash) {
+        current.put(key(file), hash);
+    }
+
+    // Writes the entries recorded in this run over those of the last one. Entries of files this
+    // run did not visit (with --since, --include, --shard, or between watch batches) are kept
+    // unless the file is gone, so a partial run does not make the next full run start over.
+    void save() throws IOException {
+        Map<String, String> entries = new TreeMap<>(current);
+        for (Map.Entry<String, String> entry : previous.entrySet()) {
+            if (!entries.containsKey(entry.getKey()) && Files.exists(Paths.get(entry.getKey()))) {
+                entries.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        Files.createDirectories(path.getParent());
+        Path temp = path.resolveSibling(FILE_NAME + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(header(configKey));
+            writer.newLine();
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                writer.write(entry.getValue() + "\t" + entry.getKey());
+                writer.newLine();
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String header(String configKey) {
+        return "# " + configKey;
+    }
+}
@@ -6,6 +6,12 @@ class NullabilityRefactoring extends Refactoring {
 
     private Set<String> possiblyNullFields = new HashSet<>();
 
+    // isField tells fields from locals by their variable binding
+    @Override
+    public boolean requiresBindings() {
+        return true;
+    }
+
     @Override
     public boolean isApplicable(ASTNode node) {
         // Apply this refactoring to CompilationUnits and MethodDeclarations
@@ -0,0 +1,291 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+// Command-line options for VGRTool: a source path, the module list and optionally more
+// source paths (files or directories), mixed with optional flags.
+class Options {
+
+    // The first source path, which holds the run state by default
+    String targetDir;
+    List<String> sourcePaths;
+    List<String> modules;
+    int threads = 1;
+    boolean pipeline;
+    int ioThreads = 16;
+    int queueCapacity = 64;
+    boolean batch;
+    String classpath = "";
+    String classpathFile;
+    boolean incremental;
+    String stateDir;
+    String since;
+    boolean diff;
+    String diffFile;
+    List<String> includes = new ArrayList<>();
+    List<String> excludes = new ArrayList<>();
+    boolean noDefaultExcludes;
+    int crawlThreads = 8;
+    boolean watch;
+    int debounceMillis = 300;
+    boolean fixpoint;
+    int maxPasses = 10;
+    int heapBudgetMegabytes;
+    int heapPercent = 60;
+    boolean discoveryOrder;
+    boolean quiet;
+    boolean verbose;
+    int progressSeconds = 5;
+    boolean checkpoint = true;
+    boolean resume;
+    boolean undo;
+    Shard shard;
+    String summaryFile;
+    int workers;
+    int fileTimeoutSeconds = 120;
+    boolean factsCache;
+    int factsCacheMegabytes = 32;
+    // The command line as given and the directory it was given in (null for this process's
+    // own), for starting --workers child processes
+    String[] args;
+    Path workingDir;
+
+    static Options parse(String[] args) {
+        Options options = new Options();
+        options.args = args.clone();
+        List<String> positional = new ArrayList<>();
+        boolean threadsGiven = false;
+        Set<String> modules = new LinkedHashSet<>();
+        String shardValue = null;
+        boolean shardBySize = false;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--threads")) {
+                options.threads = parsePositiveInt(arg, requireValue(args, i++));
+                threadsGiven = true;
+            } else if (arg.equals("--module")) {
+                addModules(modules, requireValue(args, i++));
+            } else if (arg.equals("--pipeline")) {
+                options.pipeline = true;
+            } else if (arg.equals("--io-threads")) {
+                options.ioThreads = parsePositiveInt(arg, requireValue(args, i++));
+            } else if (arg.equals("--queue-capacity")) {
+                options.queueCapacity = parsePositiveInt(arg, requireValue(args, i++));
+            } else if (arg.equals("--batch")) {
+                options.batch = true;
+            } else if (arg.equals("--classpath")) {
+                options.classpath = requireValue(args, i++);
+            } else if (arg.equals("--classpath-file")) {
+                options.classpathFile = requireValue(args, i++);
+            } else if (arg.equals("--incremental")) {
+                options.incremental = true;
+            } else if (arg.equals("--state-dir")) {
+                options.stateDir = requireValue(args, i++);
+            } else if (arg.equals("--since")) {
+                options.since = requireValue(args, i++);
+                // git would take it for an option
+                if (options.since.startsWith("-")) {
+                    throw new IllegalArgumentException("Expected a revision for --since: " + options.since);
+                }
+            } else if (arg.equals("--diff")) {
+                options.diff = true;
+            } else if (arg.equals("--diff-file")) {
+                options.diff = true;
+                options.diffFile = requireValue(args, i++);
+            } else if (arg.equals("--include")) {
+                options.includes.add(requireValue(args, i++));
+            } else if (arg.equals("--exclude")) {
+                options.excludes.add(requireValue(args, i++));
+            } else if (arg.equals("--no-default-excludes")) {
+                options.noDefaultExcludes = true;
+            } else if (arg.equals("--crawl-threads")) {
+                options.crawlThreads = parsePositiveInt(arg, requireValue(args, i++));
+            } else if (arg.equals("--watch")) {
+                options.watch = true;
+            } else if (arg.equals("--debounce-ms")) {
+                options.debounceMillis = parsePositiveInt(arg, requireValue(args, i++));
+            } else if (arg.equals("--fixpoint")) {
+                options.fixpoint = true;
+            } else if (arg.equals("--max-passes")) {
+                options.fixpoint = true;
+                options.maxPasses = parsePositiveInt(arg, requireValue(args, i++));
+            } else if (arg.equals("--heap-budget-mb")) {
+                options.heapBudgetMegabytes = parsePositiveInt(arg, requireValue(args, i++));
+            } else if (arg.equals("--heap-percent")) {
+                options.heapPercent = parsePositiveInt(arg, requireValue(args, i++));
+                if (options.heapPercent > 100) {
+                    throw new IllegalArgumentException("Expected a percentage for --heap-percent: " + options.heapPercent);
+                }
+            } else if (arg.equals("--discovery-order")) {
+                options.discoveryOrder = true;
+            } else if (arg.equals("--quiet")) {
+                options.quiet = true;
+            } else if (arg.equals("--verbose")) {
+                options.verbose = true;
+            } else if (arg.equals("--progress-interval")) {
+                options.progressSeconds = parsePositiveInt(arg, requireValue(args, i++));
+            } else if (arg.equals("--resume")) {
+                options.resume = true;
+            } else if (arg.equals("--no-checkpoint")) {
+                options.checkpoint = false;
+            } else if (arg.equals("--undo")) {
+                options.undo = true;
+            } else if (arg.equals("--shard")) {
+                shardValue = requireValue(args, i++);
+            } else if (arg.equals("--shard-by-size")) {
+                shardBySize = true;
+            } else if (arg.equals("--summary-file")) {
+                options.summaryFile = requireValue(args, i++);
+            } else if (arg.equals("--workers")) {
+                options.workers = parsePositiveInt(arg, requireValue(args, i++));
+            } else if (arg.equals("--file-timeout")) {
+                options.fileTimeoutSeconds = parsePositiveInt(arg, requireValue(args, i++));
+            } else if (arg.equals("--no-file-timeout")) {
+                options.fileTimeoutSeconds = 0;
+            } else if (arg.equals("--facts-cache")) {
+                options.factsCache = true;
+            } else if (arg.equals("--facts-cache-mb")) {
+                options.factsCache = true;
+                options.factsCacheMegabytes = parsePositiveInt(arg, requireValue(args, i++));
+            } else if (arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            } else {
+                positional.add(arg);
+            }
+        }
+
+        if (positional.size() < 2) {
+            throw new IllegalArgumentException("Expected <sourceDirPath> <refactoringModule>[,<refactoringModule>...]");
+        }
+        // Later passes read what earlier passes wrote, so the files have to be rewritten
+        if (options.fixpoint && options.diff) {
+            throw new IllegalArgumentException("--fixpoint cannot be combined with --diff or --diff-file");
+        }
+        if (options.fixpoint && options.watch) {
+            throw new IllegalArgumentException("--fixpoint cannot be combined with --watch");
+        }
+        if (options.resume && (options.diff || options.watch || !options.checkpoint)) {
+            throw new IllegalArgumentException("--resume cannot be combined with --diff, --watch or --no-checkpoint");
+        }
+        if (shardValue != null) {
+            options.shard = Shard.parse(shardValue, shardBySize);
+        } else if (shardBySize) {
+            throw new IllegalArgumentException("--shard-by-size needs --shard <i>/<n>");
+        }
+        if (options.workers > 0 && (options.batch || options.pipeline || options.watch)) {
+            throw new IllegalArgumentException("--workers cannot be combined with --batch, --pipeline or --watch");
+        }
+        if (options.quiet && options.verbose) {
+            throw new IllegalArgumentException("--quiet cannot be combined with --verbose");
+        }
+        if (options.pipeline && !threadsGiven) {
+            options.threads = Runtime.getRuntime().availableProcessors();
+        }
+        options.targetDir = positional.get(0);
+        options.sourcePaths = new ArrayList<>();
+        options.sourcePaths.add(positional.get(0));
+        options.sourcePaths.addAll(positional.subList(2, positional.size()));
+        addModules(modules, positional.get(1));
+        if (modules.isEmpty()) {
+            throw new IllegalArgumentException("No refactoring module specified");
+        }
+        options.modules = new ArrayList<>(modules);
+        return options;
+    }
+
+    // Makes every path option absolute relative to the given directory
+    void resolveAgainst(Path workingDir) {
+        this.workingDir = workingDir;
+        targetDir = resolve(workingDir, targetDir);
+        sourcePaths.replaceAll(path -> resolve(workingDir, path));
+        stateDir = stateDir != null ? resolve(workingDir, stateDir) : null;
+        diffFile = diffFile != null ? resolve(workingDir, diffFile) : null;
+        summaryFile = summaryFile != null ? resolve(workingDir, summaryFile) : null;
+        classpathFile = classpathFile != null ? resolve(workingDir, classpathFile) : null;
+        List<String> entries = new ArrayList<>();
+        for (String entry : classpath.split(File.pathSeparator)) {
+            if (!entry.isEmpty()) {
+                entries.add(resolve(workingDir, entry));
+            }
+        }
+        classpath = String.join(File.pathSeparator, entries);
+    }
+
+    private static String resolve(Path workingDir, String path) {
+        return workingDir.resolve(path).normalize().toString();
+    }
+
+    // Modules may be given comma-separated and/or with repeated --module options; duplicates
+    // are dropped so each refactoring runs once per file
+    private static void addModules(Set<String> modules, String value) {
+        for (String module : value.split(",")) {
+            module = module.trim();
+            if (module.isEmpty()) {
+                continue;
+            }
+            if (!RefactoringEngine.isKnownRefactoring(module)) {
+                throw new IllegalArgumentException("Unknown refactoring: " + module);
+            }
+            modules.add(module);
+        }
+    }
+
+    // Where run state such as the incremental manifest is kept; defaults to .vgrtool in the source directory
+    Path stateDir() {
+        return stateDir != null ? Paths.get(stateDir) : defaultStateDir(targetDir);
+    }
+
+    // Deepest directory holding every source path, a single file counting as its directory.
+    // Diff paths and shard keys are relative to it, so they neither come out empty for a file
+    // nor absolute for extra source paths, and do not depend on where the tree is checked out.
+    Path sourceRoot() {
+        Path root = null;
+        for (String sourcePath : sourcePaths) {
+            Path path = Paths.get(sourcePath).toAbsolutePath().normalize();
+            Path dir = Files.isRegularFile(path) ? path.getParent() : path;
+            if (root == null) {
+                root = dir;
+            }
+            while (root != null && !dir.startsWith(root)) {
+                root = root.getParent();
+            }
+        }
+        return root;
+    }
+
+    // A source path that is a single file keeps its state in the directory holding it
+    static Path defaultStateDir(String sourcePath) {
+        Path path = Paths.get(sourcePath);
+        return (Files.isRegularFile(path) ? path.toAbsolutePath().getParent() : path).resolve(".vgrtool");
+    }
+
+    // Sharded runs always leave a summary for --merge-summaries
+    Path summaryFile() {
+        if (summaryFile != null) {
+            return Paths.get(summaryFile);
+        }
+        return shard != null ? stateDir().resolve("summary-" + shard.index + "-of-" + shard.count + ".properties") : null;
+    }
+
+    static String requireValue(String[] args, int index) {
+        if (index + 1 >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[index]);
+        }
+        return args[index + 1];
+    }
+
+    static int parsePositiveInt(String option, String value) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the error below
+        }
+        throw new IllegalArgumentException("Expected a positive integer for " + option + ": " + value);
+    }
+}
@@ -0,0 +1,54 @@
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.ASTParser;
+
+// How files are parsed for one run: the union of what the selected refactorings declare
+// they need. A run of syntactic modules only neither resolves bindings nor parses Javadoc
+// into tags, which are the most expensive parts of a parse.
+class ParserProfile {
+
+    final boolean bindings;
+    final boolean docComments;
+    final boolean methodBodies;
+    final boolean statementsRecovery;
+
+    ParserProfile(boolean bindings, boolean docComments, boolean methodBodies, boolean statementsRecovery) {
+        this.bindings = bindings;
+        this.docComments = docComments;
+        this.methodBodies = methodBodies;
+        this.statementsRecovery = statementsRecovery;
+    }
+
+    static ParserProfile of(List<Refactoring> refactorings) {
+        boolean bindings = false;
+        boolean docComments = false;
+        boolean methodBodies = false;
+        boolean statementsRecovery = false;
+        for (Refactoring refactoring : refactorings) {
+            bindings |= refactoring.requiresBindings();
+            docComments |= refactoring.requiresDocComments();
+            methodBodies |= refactoring.requiresMethodBodies();
+            statementsRecovery |= refactoring.requiresStatementsRecovery();
+        }
+        return new ParserProfile(bindings, docComments, methodBodies, statementsRecovery);
+    }
+
+    // Binding resolution also needs an environment or unit name, which the caller sets
+    void configure(ASTParser parser, Map<String, String> compilerOptions) {
+        compilerOptions.put(JavaCore.COMPILER_DOC_COMMENT_SUPPORT, docComments ? JavaCore.ENABLED : JavaCore.DISABLED);
+        parser.setCompilerOptions(compilerOptions);
+        parser.setResolveBindings(bindings);
+        parser.setBindingsRecovery(bindings);
+        parser.setIgnoreMethodBodies(!methodBodies);
+        parser.setStatementsRecovery(statementsRecovery);
+    }
+
+    @Override
+    public String toString() {
+        return (bindings ? "bindings" : "no bindings")
+                + ", " + (docComments ? "Javadoc" : "no Javadoc")
+                + ", " + (methodBodies ? "method bodies" : "no method bodies")
+                + (statementsRecovery ? ", statements recovery" : "");
+    }
+}
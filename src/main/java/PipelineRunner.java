@@ -0,0 +1,232 @@
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs the read, refactor and write stages of VGRTool.processFile on separate threads
+// connected by bounded queues. Reads and writes block on the disk, so they run on virtual
+// threads; parsing and rewriting are CPU-bound and run on a fixed pool of platform threads.
+// A full queue blocks the stage feeding it, which keeps memory bounded when the disk and
+// the CPU run at different speeds.
+class PipelineRunner {
+
+    private static final Item END = new Item(-1, null);
+
+    private final RunContext context;
+    private final Options options;
+    private final BlockingQueue<Item> refactorQueue;
+    private final BlockingQueue<Item> writeQueue;
+    private final Stage readStage = new Stage("read");
+    private final Stage refactorStage = new Stage("refactor");
+    private final Stage writeStage = new Stage("write");
+
+    PipelineRunner(RunContext context) {
+        this.context = context;
+        this.options = context.options;
+        this.refactorQueue = new ArrayBlockingQueue<>(options.queueCapacity);
+        this.writeQueue = new ArrayBlockingQueue<>(options.queueCapacity);
+    }
+
+    void run(List<File> files) throws InterruptedException {
+        List<CompletableFuture<FileResult>> results = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            results.add(new CompletableFuture<>());
+        }
+
+        long startNanos = System.nanoTime();
+        ThreadFactory ioThreads = Thread.ofVirtual().name("vgr-io-", 0).factory();
+        ThreadFactory cpuThreads = Thread.ofPlatform().name("vgr-cpu-", 0).daemon(true).factory();
+
+        AtomicInteger nextFile = new AtomicInteger();
+        List<Thread> readers = start(options.ioThreads, ioThreads, () -> readLoop(files, nextFile, results));
+        List<Thread> refactorers = start(options.threads, cpuThreads, () -> refactorLoop(results));
+        List<Thread> writers = start(options.ioThreads, ioThreads, () -> writeLoop(results));
+
+        // Close each queue once every thread feeding it has finished
+        Thread closer = ioThreads.newThread(() -> {
+            try {
+                joinAll(readers);
+                putEnd(refactorQueue, refactorers.size());
+                joinAll(refactorers);
+                putEnd(writeQueue, writers.size());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        closer.start();
+
+        // Report in input order, so the log matches a sequential run
+        for (int i = 0; i < files.size(); i++) {
+            context.log.file("Processing file: " + files.get(i).getPath());
+            VGRTool.report(results.get(i).join(), context);
+        }
+        closer.join();
+        joinAll(writers);
+
+        double seconds = Math.max((System.nanoTime() - startNanos) / 1e9, 1e-9);
+        context.log.info("Pipeline stages (" + options.ioThreads + " I/O threads, "
+                + options.threads + " CPU threads, queue capacity " + options.queueCapacity + "):");
+        context.log.info(readStage.format(seconds, options.ioThreads));
+        context.log.info(refactorStage.format(seconds, options.threads));
+        context.log.info(writeStage.format(seconds, options.ioThreads));
+    }
+
+    private void readLoop(List<File> files, AtomicInteger nextFile, List<CompletableFuture<FileResult>> results) {
+        int index;
+        while ((index = nextFile.getAndIncrement()) < files.size()) {
+            Item item = new Item(index, files.get(index));
+            context.started(item.result.file);
+            long start = System.nanoTime();
+            try {
+                item.content = VGRTool.readSource(item.result.file, item.result, context);
+                item.result.skipped = context.isUnchanged(item.result);
+                if (!item.result.skipped) {
+                    VGRTool.leftAloneByFacts(item.result, context);
+                }
+            } catch (Throwable e) {
+                // Any failure, OutOfMemoryError included, belongs to this file; a stage thread
+                // that died here would leave the file's future incomplete and run() waiting forever
+                item.result.error = e;
+            }
+            readStage.record(System.nanoTime() - start);
+
+            // Files the facts cache leaves alone are finished without being parsed
+            if (item.result.error != null || item.result.skipped || item.result.success) {
+                results.get(index).complete(item.result);
+            } else if (!readStage.put(refactorQueue, item)) {
+                return;
+            }
+        }
+    }
+
+    private void refactorLoop(List<CompletableFuture<FileResult>> results) {
+        Item item;
+        while ((item = refactorStage.take(refactorQueue)) != END) {
+            long start = System.nanoTime();
+            try {
+                item.refactored = VGRTool.refactorSource(item.content, context, item.result);
+            } catch (Throwable e) {
+                item.result.error = e;
+            }
+            item.content = null;
+            refactorStage.record(System.nanoTime() - start);
+
+            if (item.result.error != null) {
+                results.get(item.index).complete(item.result);
+            } else if (!refactorStage.put(writeQueue, item)) {
+                return;
+            }
+        }
+    }
+
+    private void writeLoop(List<CompletableFuture<FileResult>> results) {
+        Item item;
+        while ((item = writeStage.take(writeQueue)) != END) {
+            long start = System.nanoTime();
+            try {
+                VGRTool.saveResult(item.result, item.refactored, context);
+            } catch (Throwable e) {
+                item.result.error = e;
+            }
+            item.refactored = null;
+            writeStage.record(System.nanoTime() - start);
+            results.get(item.index).complete(item.result);
+        }
+    }
+
+    private static List<Thread> start(int count, ThreadFactory factory, Runnable task) {
+        List<Thread> threads = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Thread thread = factory.newThread(task);
+            thread.start();
+            threads.add(thread);
+        }
+        return threads;
+    }
+
+    private static void joinAll(List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static void putEnd(BlockingQueue<Item> queue, int consumers) throws InterruptedException {
+        for (int i = 0; i < consumers; i++) {
+            queue.put(END);
+        }
+    }
+
+    // A file moving through the pipeline; content and refactored are dropped as soon as
+    // the next stage has consumed them.
+    private static class Item {
+        final int index;
+        final FileResult result;
+        String content;
+        String refactored;
+
+        Item(int index, File file) {
+            this.index = index;
+            this.result = new FileResult(file);
+        }
+    }
+
+    // Per-stage counters: work time, time blocked on a full output queue, and the depth
+    // of the input queue as seen by each take.
+    private static class Stage {
+        final String name;
+        final AtomicLong files = new AtomicLong();
+        final AtomicLong busyNanos = new AtomicLong();
+        final AtomicLong blockedNanos = new AtomicLong();
+        final AtomicLong depthSamples = new AtomicLong();
+        final AtomicLong depthTotal = new AtomicLong();
+        final AtomicInteger maxDepth = new AtomicInteger();
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        void record(long nanos) {
+            files.incrementAndGet();
+            busyNanos.addAndGet(nanos);
+        }
+
+        boolean put(BlockingQueue<Item> queue, Item item) {
+            long start = System.nanoTime();
+            try {
+                queue.put(item);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                blockedNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        Item take(BlockingQueue<Item> queue) {
+            try {
+                int depth = queue.size();
+                depthSamples.incrementAndGet();
+                depthTotal.addAndGet(depth);
+                maxDepth.accumulateAndGet(depth, Math::max);
+                return queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return END;
+            }
+        }
+
+        String format(double seconds, int threads) {
+            double busy = busyNanos.get() / 1e9;
+            String line = String.format("  %-8s %d files, %.1f files/s, %.0f%% busy, %.2f s blocked on output",
+                    name, files.get(), files.get() / seconds, 100 * busy / (seconds * threads),
+                    blockedNanos.get() / 1e9);
+            if (depthSamples.get() > 0) {
+                line += String.format(", input queue depth avg %.1f max %d",
+                        (double) depthTotal.get() / depthSamples.get(), maxDepth.get());
+            }
+            return line;
+        }
+    }
+}
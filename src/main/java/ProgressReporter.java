@@ -0,0 +1,88 @@
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Prints a progress line at a fixed interval while files are being processed: files done
+// out of those discovered so far, throughput, an estimate of the time left and the files
+// currently being worked on. While discovery is still streaming files in, the total is a
+// lower bound (shown with a '+') and no estimate is given.
+class ProgressReporter {
+
+    private static final int SHOWN_IN_FLIGHT = 3;
+
+    private final ConsoleLog log;
+    private final long startNanos = System.nanoTime();
+    private final AtomicInteger discovered = new AtomicInteger();
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final Set<File> inFlight = ConcurrentHashMap.newKeySet();
+    private volatile boolean discoveryDone;
+    private final ScheduledExecutorService sampler;
+
+    ProgressReporter(ConsoleLog log, int intervalSeconds) {
+        this.log = log;
+        this.sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vgr-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(() -> log.info(format()), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    void discovered() {
+        discovered.incrementAndGet();
+    }
+
+    void discoveryDone() {
+        discoveryDone = true;
+    }
+
+    void started(File file) {
+        inFlight.add(file);
+    }
+
+    void completed(FileResult result) {
+        inFlight.remove(result.file);
+        done.incrementAndGet();
+        bytes.addAndGet(result.bytes);
+    }
+
+    void stop() {
+        sampler.shutdownNow();
+    }
+
+    String format() {
+        double seconds = Math.max((System.nanoTime() - startNanos) / 1e9, 1e-9);
+        int filesDone = done.get();
+        int total = discovered.get();
+        double filesPerSecond = filesDone / seconds;
+        StringBuilder line = new StringBuilder(String.format("Progress: %d/%d%s files, %.1f files/s, %.2f MB/s",
+                filesDone, total, discoveryDone ? "" : "+", filesPerSecond,
+                bytes.get() / (1024.0 * 1024.0) / seconds));
+        if (discoveryDone && filesDone > 0) {
+            line.append(", ETA ").append(formatDuration((long) ((total - filesDone) / filesPerSecond)));
+        }
+
+        List<String> names = new ArrayList<>();
+        for (File file : inFlight) {
+            names.add(file.getName());
+        }
+        if (!names.isEmpty()) {
+            Collections.sort(names);
+            line.append(", in flight: ").append(String.join(", ", names.subList(0, Math.min(SHOWN_IN_FLIGHT, names.size()))));
+            if (names.size() > SHOWN_IN_FLIGHT) {
+                line.append(" (+").append(names.size() - SHOWN_IN_FLIGHT).append(" more)");
+            }
+        }
+        return line.toString();
+    }
+
+    private static String formatDuration(long seconds) {
+        if (seconds >= 3600) {
+            return String.format("%dh%02dm", seconds / 3600, seconds % 3600 / 60);
+        }
+        return seconds >= 60 ? String.format("%dm%02ds", seconds / 60, seconds % 60) : seconds + "s";
+    }
+}
@@ -4,5 +4,24 @@ import org.eclipse.jdt.core.dom.rewrite.ASTRewrite;
 public abstract class Refactoring {
     public abstract boolean isApplicable(ASTNode node);
     public abstract void apply(ASTNode node, ASTRewrite rewriter);
-}
 
+    // What the parser has to produce for this refactoring; the parse is configured with the
+    // union over the selected modules (see ParserProfile). The defaults suit a syntactic
+    // refactoring that looks into method bodies.
+    public boolean requiresBindings() {
+        return false;
+    }
+
+    // Javadoc parsed into tag elements; line and block comments are always recorded
+    public boolean requiresDocComments() {
+        return false;
+    }
+
+    public boolean requiresMethodBodies() {
+        return true;
+    }
+
+    public boolean requiresStatementsRecovery() {
+        return false;
+    }
+}
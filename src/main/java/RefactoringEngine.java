@@ -1,4 +1,6 @@
 import java.util.*;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.jdt.core.dom.*;
 import org.eclipse.jdt.core.dom.rewrite.ASTRewrite;
 import org.eclipse.jface.text.Document;
@@ -6,6 +8,16 @@ import org.eclipse.text.edits.TextEdit;
 
 public class RefactoringEngine {
 
+    private static final Set<String> KNOWN_REFACTORINGS = new HashSet<>(Arrays.asList(
+            "WrapWithCheckNotNullRefactoring",
+            "AddNullChecksForNullableReferences",
+            "AddNullCheckBeforeDereferenceRefactoring",
+            "AddNullnessAnnotationsRefactoring",
+            "IntroduceLocalVariableAndNullCheckRefactoring",
+            "IntroduceLocalVariableWithNullCheckRefactoring",
+            "NullabilityRefactoring",
+            "SimplifyNullCheckRefactoring"));
+
     private List<Refactoring> refactorings;
     private Set<Expression> expressionsPossiblyNull;
 
@@ -14,30 +26,10 @@ public class RefactoringEngine {
         refactorings = new ArrayList<>();
 
         for (String name : refactoringNames) {
-            Refactoring refactoring = null;
-            if (name.equals("WrapWithCheckNotNullRefactoring")) {
-                refactoring = new WrapWithCheckNotNullRefactoring(expressionsPossiblyNull);
-            } else if (name.equals("AddNullChecksForNullableReferences")) {
-                refactoring = new AddNullChecksForNullableReferencesRefactoring(expressionsPossiblyNull);
-            } else if (name.equals("AddNullCheckBeforeDereferenceRefactoring")) {
-                refactoring = new AddNullCheckBeforeDereferenceRefactoring(expressionsPossiblyNull);
-            /*} else if (name.equals("AddNullCheckBeforeMethodCallRefactoring")) {
-                refactoring = new AddNullCheckBeforeMethodCallRefactoring(variablesPossiblyNull, expressionsPossiblyNull);*/
-            } else if (name.equals("AddNullnessAnnotationsRefactoring")) {
-                refactoring = new AddNullnessAnnotationsRefactoring();
-            } else if (name.equals("IntroduceLocalVariableAndNullCheckRefactoring")) {
-                refactoring = new IntroduceLocalVariableAndNullCheckRefactoring(expressionsPossiblyNull);
-            } else if (name.equals("IntroduceLocalVariableWithNullCheckRefactoring")) {
-                refactoring = new IntroduceLocalVariableWithNullCheckRefactoring(expressionsPossiblyNull);
-            } else if (name.equals("NullabilityRefactoring")) {
-                refactoring = new NullabilityRefactoring();
-            } else if (name.equals("SimplifyNullCheckRefactoring")) {
-                refactoring = new SimplifyNullCheckRefactoring();
-            } else {
+            Refactoring refactoring = create(name, expressionsPossiblyNull);
+            if (refactoring == null) {
                 System.err.println("Unknown refactoring: " + name);
-            }
-
-            if (refactoring != null) {
+            } else {
                 refactorings.add(refactoring);
             }
         }
@@ -48,7 +40,78 @@ public class RefactoringEngine {
         }
     }
 
+    private static Refactoring create(String name, Set<Expression> expressionsPossiblyNull) {
+        if (name.equals("WrapWithCheckNotNullRefactoring")) {
+            return new WrapWithCheckNotNullRefactoring(expressionsPossiblyNull);
+        } else if (name.equals("AddNullChecksForNullableReferences")) {
+            return new AddNullChecksForNullableReferencesRefactoring(expressionsPossiblyNull);
+        } else if (name.equals("AddNullCheckBeforeDereferenceRefactoring")) {
+            return new AddNullCheckBeforeDereferenceRefactoring(expressionsPossiblyNull);
+        /*} else if (name.equals("AddNullCheckBeforeMethodCallRefactoring")) {
+            return new AddNullCheckBeforeMethodCallRefactoring(variablesPossiblyNull, expressionsPossiblyNull);*/
+        } else if (name.equals("AddNullnessAnnotationsRefactoring")) {
+            return new AddNullnessAnnotationsRefactoring();
+        } else if (name.equals("IntroduceLocalVariableAndNullCheckRefactoring")) {
+            return new IntroduceLocalVariableAndNullCheckRefactoring(expressionsPossiblyNull);
+        } else if (name.equals("IntroduceLocalVariableWithNullCheckRefactoring")) {
+            return new IntroduceLocalVariableWithNullCheckRefactoring(expressionsPossiblyNull);
+        } else if (name.equals("NullabilityRefactoring")) {
+            return new NullabilityRefactoring();
+        } else if (name.equals("SimplifyNullCheckRefactoring")) {
+            return new SimplifyNullCheckRefactoring();
+        }
+        return null;
+    }
+
+    public static boolean isKnownRefactoring(String name) {
+        return KNOWN_REFACTORINGS.contains(name);
+    }
+
+    static List<String> knownRefactorings() {
+        List<String> names = new ArrayList<>(KNOWN_REFACTORINGS);
+        Collections.sort(names);
+        return names;
+    }
+
+    // Counts how many nodes of a unit each known refactoring finds applicable, in the order of
+    // knownRefactorings(), for FactsCache. It is fed each node's postVisit during the traversal
+    // that collects expressionsPossiblyNull: an expression is added when it or its parent is
+    // visited, so by postVisit every addition that a node's applicability depends on is made.
+    static class CandidateCounter {
+        private final List<Refactoring> all = new ArrayList<>();
+        final int[] counts;
+
+        CandidateCounter(Set<Expression> expressionsPossiblyNull) {
+            for (String name : knownRefactorings()) {
+                all.add(create(name, expressionsPossiblyNull));
+            }
+            counts = new int[all.size()];
+        }
+
+        void count(ASTNode node) {
+            for (int i = 0; i < counts.length; i++) {
+                if (all.get(i).isApplicable(node)) {
+                    counts[i]++;
+                }
+            }
+        }
+    }
+
+    // What parsing the named refactorings need, known before any file is parsed
+    static ParserProfile parserProfile(List<String> refactoringNames) {
+        return ParserProfile.of(new RefactoringEngine(refactoringNames, Collections.emptySet()).refactorings);
+    }
+
     public String applyRefactorings(CompilationUnit cu, String sourceCode) {
+        return applyRefactorings(cu, sourceCode, null, null);
+    }
+
+    // When changedRegions is non-null, each top-level edit of the rewrite is added to it as
+    // {originalStart, originalEnd, revisedStart, revisedEnd}; text outside these regions is
+    // left unchanged by the rewrite.
+    // When monitor is non-null, an OperationCanceledException is thrown once it is canceled.
+    public String applyRefactorings(CompilationUnit cu, String sourceCode, List<int[]> changedRegions,
+            IProgressMonitor monitor) {
         AST ast = cu.getAST();
         ASTRewrite rewriter = ASTRewrite.create(ast);
 
@@ -56,6 +119,7 @@ public class RefactoringEngine {
             cu.accept(new ASTVisitor() {
                 @Override
                 public void preVisit(ASTNode node) {
+                    checkCanceled(monitor);
                     if (refactoring.isApplicable(node)) {
                         refactoring.apply(node, rewriter);
                     }
@@ -63,15 +127,37 @@ public class RefactoringEngine {
             });
         }
 
+        checkCanceled(monitor);
         Document document = new Document(sourceCode);
         TextEdit edits = rewriter.rewriteAST(document, null);
+        checkCanceled(monitor);
+        TextEdit[] changes = edits.hasChildren() ? edits.getChildren() : new TextEdit[] { edits };
+        int[][] originalRanges = new int[changes.length][];
+        for (int i = 0; i < changes.length; i++) {
+            originalRanges[i] = new int[] { changes[i].getOffset(), changes[i].getExclusiveEnd() };
+        }
         try {
+            // Applying also moves each edit's region onto the revised document
             edits.apply(document);
+            if (changedRegions != null) {
+                for (int i = 0; i < changes.length; i++) {
+                    if (!changes[i].isDeleted()) {
+                        changedRegions.add(new int[] { originalRanges[i][0], originalRanges[i][1],
+                                changes[i].getOffset(), changes[i].getExclusiveEnd() });
+                    }
+                }
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
 
         return document.get();
     }
+
+    static void checkCanceled(IProgressMonitor monitor) {
+        if (monitor != null && monitor.isCanceled()) {
+            throw new OperationCanceledException();
+        }
+    }
 }
 
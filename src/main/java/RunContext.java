@@ -0,0 +1,201 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+// State shared by every execution mode for the duration of one run.
+class RunContext {
+
+    final Options options;
+    final RunSummary summary = new RunSummary();
+    final Manifest manifest;
+    // Journal of finished files for --resume; not kept in diff and watch mode, which leave
+    // no partially rewritten tree behind
+    final Checkpoint checkpoint;
+    // Original bytes of rewritten files for --rollback, with --undo
+    final UndoJournal undo;
+    final HeapBudget heapBudget;
+    // How files are parsed, from what the selected modules need
+    final ParserProfile parserProfile;
+    // Per-content analysis facts that let a file be left alone without parsing it, with
+    // --facts-cache; diff runs and worker processes only consult it
+    final FactsCache facts;
+    // What bindings resolve against, only when a selected module needs bindings
+    final ClasspathEnvironment classpath;
+    final ConsoleLog log;
+    // Set while processFiles runs outside --quiet
+    volatile ProgressReporter progress;
+    // Only kept when several workers share the files, since ordering matters only then
+    final CostModel costModel;
+    // Destination of unified diffs in --diff mode, null when files are rewritten in place
+    final PrintStream diffOutput;
+    // Diffs are computed instead of writing files; a worker process sends them to the coordinator
+    final boolean diffMode;
+    // Set in a --workers child process, which reports to the coordinator instead of keeping run state
+    final boolean worker;
+    // Whether read bytes are kept for an undo journal, here or in the coordinator
+    final boolean keepOriginals;
+    private final Path root;
+    // Notified of every reported result, e.g. by watch mode to recognise its own writes
+    volatile Consumer<FileResult> resultListener;
+    // Counters for the current fixpoint pass, in addition to the run totals
+    volatile RunSummary passSummary;
+    // Set for fixpoint passes after the first, which must re-read files the manifest already lists
+    volatile boolean reprocessing;
+
+    RunContext(Options options, PrintStream diffStdout) throws IOException {
+        this(options, diffStdout, false);
+    }
+
+    RunContext(Options options, PrintStream diffStdout, boolean worker) throws IOException {
+        this.options = options;
+        this.worker = worker;
+        this.diffMode = options.diff;
+        this.keepOriginals = options.undo && !options.diff;
+        this.log = new ConsoleLog(System.out, System.err, options.quiet ? ConsoleLog.Level.QUIET
+                : options.verbose ? ConsoleLog.Level.VERBOSE : ConsoleLog.Level.NORMAL);
+        String configKey = VGRTool.VERSION + " " + String.join(",", options.modules);
+        this.manifest = options.incremental ? Manifest.load(options.stateDir(), configKey) : null;
+        if (worker) {
+            this.checkpoint = options.resume ? Checkpoint.read(options.stateDir(), configKey) : null;
+        } else {
+            this.checkpoint = options.checkpoint && !options.diff && !options.watch
+                    ? Checkpoint.open(options.stateDir(), configKey, options.resume)
+                    : null;
+        }
+        this.undo = keepOriginals && !worker ? UndoJournal.open(options.stateDir()) : null;
+        if (checkpoint != null && options.resume) {
+            log.info("Resuming: " + checkpoint.resumableFiles() + " files were completed by the interrupted run");
+        }
+        if (worker) {
+            this.diffOutput = null;
+        } else if (options.diffFile != null) {
+            this.diffOutput = new PrintStream(new FileOutputStream(options.diffFile), false, StandardCharsets.UTF_8);
+        } else {
+            this.diffOutput = options.diff ? diffStdout : null;
+        }
+        this.heapBudget = HeapBudget.forOptions(options);
+        FileDeadline.limitParsers(options.threads);
+        this.parserProfile = RefactoringEngine.parserProfile(options.modules);
+        this.facts = options.factsCache
+                ? FactsCache.load(options.stateDir(), options.factsCacheMegabytes * 1024L * 1024L)
+                : null;
+        this.classpath = parserProfile.bindings ? ClasspathEnvironment.forOptions(options) : null;
+        this.costModel = (options.pipeline || options.threads > 1 || options.workers > 0)
+                && !options.batch && !options.discoveryOrder && !worker
+                ? CostModel.load(options.stateDir())
+                : null;
+        this.root = options.sourceRoot();
+    }
+
+    // True if the file was processed with the same configuration by the last run, or by
+    // the interrupted run being resumed, and has not been modified since
+    boolean isUnchanged(FileResult result) {
+        if (reprocessing) {
+            return false;
+        }
+        return (manifest != null && manifest.isUnchanged(result.file, result.hash))
+                || (checkpoint != null && checkpoint.isCompleted(result.file, result.hash));
+    }
+
+    // Path of a file relative to the source root, with '/' separators as used in patches
+    String relativePath(File file) {
+        return Shard.relativePath(root, file);
+    }
+
+    synchronized void emitDiff(String diff) {
+        diffOutput.print(diff);
+        diffOutput.flush();
+    }
+
+    // Called when work on a file begins, for the in-flight list of the progress line
+    void started(File file) {
+        ProgressReporter reporter = progress;
+        if (reporter != null) {
+            reporter.started(file);
+        }
+    }
+
+    void record(FileResult result) {
+        if (manifest != null) {
+            if (result.skipped) {
+                manifest.record(result.file, result.hash);
+            } else if (result.success && result.outputHash != null) {
+                manifest.record(result.file, result.outputHash);
+            }
+        }
+        if (checkpoint != null) {
+            String hash = result.skipped ? result.hash : result.success ? result.outputHash : null;
+            if (hash != null) {
+                try {
+                    checkpoint.record(result.file, hash, result.written);
+                } catch (IOException e) {
+                    log.error("Could not write checkpoint for " + result.file.getPath(), e);
+                }
+            }
+        }
+        if (costModel != null && result.success && result.parseNanos + result.rewriteNanos > 0) {
+            costModel.record(result.file, result.parseNanos + result.rewriteNanos, result.bytes);
+        }
+        summary.add(result);
+        ProgressReporter reporter = progress;
+        if (reporter != null) {
+            reporter.completed(result);
+        }
+        RunSummary pass = passSummary;
+        if (pass != null) {
+            pass.add(result);
+        }
+        Consumer<FileResult> listener = resultListener;
+        if (listener != null) {
+            listener.accept(result);
+        }
+    }
+
+    void finish() throws IOException {
+        // A diff run leaves the source tree, and the state directory in it, untouched
+        if (manifest != null && !diffMode) {
+            manifest.save();
+        }
+        if (costModel != null && !diffMode) {
+            costModel.save();
+        }
+        if (facts != null && !diffMode) {
+            facts.save();
+        }
+        if (checkpoint != null) {
+            checkpoint.complete();
+        }
+        closeUndo();
+        if (diffOutput != null) {
+            diffOutput.flush();
+            if (options.diffFile != null) {
+                diffOutput.close();
+            }
+        }
+    }
+
+    // Keeps the checkpoint journal of a run that failed, so it can be resumed; files it
+    // already rewrote can still be rolled back
+    void abandon() {
+        try {
+            if (checkpoint != null) {
+                checkpoint.close();
+            }
+            closeUndo();
+        } catch (IOException e) {
+            log.error("Could not close run journals", e);
+        }
+    }
+
+    private void closeUndo() throws IOException {
+        if (undo != null) {
+            undo.close();
+            log.info("Undo journal: run " + undo.runId + " (" + undo.files() + " files), roll back with"
+                    + " --rollback " + undo.runId + " " + options.targetDir);
+        }
+    }
+}
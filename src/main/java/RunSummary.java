@@ -0,0 +1,119 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+// Aggregate counters for a whole run, printed once all files have been processed.
+class RunSummary {
+
+    private final long startNanos = System.nanoTime();
+    private int files;
+    private int failed;
+    private int skipped;
+    private int timedOut;
+    private int written;
+    private int unchangedWrites;
+    private long bytes;
+
+    synchronized void add(FileResult result) {
+        files++;
+        bytes += result.bytes;
+        if (result.skipped) {
+            skipped++;
+        } else if (result.timedOut) {
+            timedOut++;
+        } else if (!result.success) {
+            failed++;
+        } else if (result.written) {
+            written++;
+        } else {
+            unchangedWrites++;
+        }
+    }
+
+    synchronized int getFailed() {
+        return failed;
+    }
+
+    synchronized String format() {
+        return format(elapsedSeconds());
+    }
+
+    private double elapsedSeconds() {
+        return Math.max((System.nanoTime() - startNanos) / 1e9, 1e-9);
+    }
+
+    private String format(double seconds) {
+        double megabytes = bytes / (1024.0 * 1024.0);
+        return String.format("Processed %d files (%.2f MB) in %.2f s: %.1f files/s, %.2f MB/s%n"
+                + "  %d written, %d writes skipped (no changes), %d unchanged since last run, %d failed, %d timed out",
+                files, megabytes, seconds, files / seconds, megabytes / seconds,
+                written, unchangedWrites, skipped, failed, timedOut);
+    }
+
+    // Machine-readable counters of one shard, combined by merge
+    synchronized void write(Path file, String shard) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("shard", shard);
+        properties.setProperty("files", Integer.toString(files));
+        properties.setProperty("failed", Integer.toString(failed));
+        properties.setProperty("skipped", Integer.toString(skipped));
+        properties.setProperty("timedOut", Integer.toString(timedOut));
+        properties.setProperty("written", Integer.toString(written));
+        properties.setProperty("unchangedWrites", Integer.toString(unchangedWrites));
+        properties.setProperty("bytes", Long.toString(bytes));
+        properties.setProperty("seconds", Double.toString(elapsedSeconds()));
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            properties.store(writer, "VGRTool shard summary");
+        }
+    }
+
+    // args: --merge-summaries <summaryFile>...
+    // Shards run side by side, so the merged run took as long as the slowest shard
+    static int merge(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java VGRTool --merge-summaries <summaryFile>...");
+            return 1;
+        }
+        RunSummary total = new RunSummary();
+        double seconds = 1e-9;
+        try {
+            for (int i = 1; i < args.length; i++) {
+                Properties properties = new Properties();
+                try (Reader reader = Files.newBufferedReader(Paths.get(args[i]), StandardCharsets.UTF_8)) {
+                    properties.load(reader);
+                }
+                RunSummary shard = new RunSummary();
+                shard.files = Integer.parseInt(properties.getProperty("files"));
+                shard.failed = Integer.parseInt(properties.getProperty("failed"));
+                shard.skipped = Integer.parseInt(properties.getProperty("skipped"));
+                shard.timedOut = Integer.parseInt(properties.getProperty("timedOut", "0"));
+                shard.written = Integer.parseInt(properties.getProperty("written"));
+                shard.unchangedWrites = Integer.parseInt(properties.getProperty("unchangedWrites"));
+                shard.bytes = Long.parseLong(properties.getProperty("bytes"));
+                double shardSeconds = Double.parseDouble(properties.getProperty("seconds"));
+                System.out.println("Shard " + properties.getProperty("shard") + ": " + shard.format(shardSeconds));
+
+                total.files += shard.files;
+                total.failed += shard.failed;
+                total.skipped += shard.skipped;
+                total.timedOut += shard.timedOut;
+                total.written += shard.written;
+                total.unchangedWrites += shard.unchangedWrites;
+                total.bytes += shard.bytes;
+                seconds = Math.max(seconds, shardSeconds);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Could not read shard summary: " + e);
+            return 1;
+        }
+        System.out.println("All " + (args.length - 1) + " shards: " + total.format(seconds));
+        return total.failed == 0 ? 0 : 1;
+    }
+}
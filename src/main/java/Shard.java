@@ -0,0 +1,111 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+// Selects this machine's share of the files for --shard i/n, so n machines can split one
+// tree without talking to each other. Every machine must come to the same assignment, so it
+// depends only on paths relative to the source root (and, in size mode, file sizes), never
+// on where the tree is checked out or on discovery timing.
+//
+// In hash mode a file belongs to the shard its relative path hashes to; files are filtered
+// as discovery streams them. In size mode every machine sorts the whole file list by size,
+// largest first, and deals each file to the shard with the fewest bytes so far, which keeps
+// the shards within one file of each other; this needs identical checkouts on all machines.
+class Shard {
+
+    final int index;
+    final int count;
+    final boolean bySize;
+
+    Shard(int index, int count, boolean bySize) {
+        this.index = index;
+        this.count = count;
+        this.bySize = bySize;
+    }
+
+    // "i/n" with 1 <= i <= n
+    static Shard parse(String value, boolean bySize) {
+        int slash = value.indexOf('/');
+        try {
+            if (slash > 0) {
+                int index = Integer.parseInt(value.substring(0, slash));
+                int count = Integer.parseInt(value.substring(slash + 1));
+                if (count > 0 && index >= 1 && index <= count) {
+                    return new Shard(index, count, bySize);
+                }
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the error below
+        }
+        throw new IllegalArgumentException("Expected --shard <i>/<n> with 1 <= i <= n: " + value);
+    }
+
+    VGRTool.FileSource select(VGRTool.FileSource source, Path root) throws IOException {
+        if (!bySize) {
+            return action -> source.forEach(file -> {
+                if (shardOf(relativePath(root, file)) == index - 1) {
+                    action.accept(file);
+                }
+            });
+        }
+
+        List<File> files = new ArrayList<>();
+        source.forEach(files::add);
+        List<String> paths = new ArrayList<>(files.size());
+        for (File file : files) {
+            paths.add(relativePath(root, file));
+        }
+        Integer[] order = new Integer[files.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        long[] sizes = new long[files.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = files.get(i).length();
+        }
+        Arrays.sort(order, (a, b) -> sizes[a] != sizes[b] ? Long.compare(sizes[b], sizes[a])
+                : paths.get(a).compareTo(paths.get(b)));
+
+        long[] load = new long[count];
+        boolean[] mine = new boolean[files.size()];
+        for (int i : order) {
+            int lightest = 0;
+            for (int shard = 1; shard < count; shard++) {
+                if (load[shard] < load[lightest]) {
+                    lightest = shard;
+                }
+            }
+            load[lightest] += sizes[i];
+            mine[i] = lightest == index - 1;
+        }
+
+        // Keep discovery order within the shard
+        List<File> selected = new ArrayList<>();
+        for (int i = 0; i < mine.length; i++) {
+            if (mine[i]) {
+                selected.add(files.get(i));
+            }
+        }
+        return selected::forEach;
+    }
+
+    // SHA-256 rather than String.hashCode, whose low bits spread similar paths poorly
+    private int shardOf(String relativePath) {
+        String hash = ContentHash.of(relativePath.getBytes(StandardCharsets.UTF_8));
+        return (int) Long.remainderUnsigned(Long.parseUnsignedLong(hash.substring(0, 16), 16), count);
+    }
+
+    // Source paths on different file system roots have no common root
+    static String relativePath(Path root, File file) {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        Path relative = root != null && path.startsWith(root) ? root.relativize(path) : path;
+        return relative.toString().replace(File.separatorChar, '/');
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}
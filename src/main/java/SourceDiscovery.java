@@ -0,0 +1,215 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+// Finds the .java files under each source path and hands each one to a consumer as soon
+// as its directory has been listed, instead of collecting the whole tree first. Build output,
+// VCS metadata and generated-source directories are pruned, as is anything matched by
+// .gitignore files or --exclude globs; --include globs restrict which files are accepted.
+//
+// Directory listings run on a small thread pool: when a directory is listed, listings of its
+// subdirectories are started ahead of time (up to PREFETCH_LIMIT outstanding listings), while
+// the calling thread emits files in sorted depth-first order. Discovery is therefore parallel
+// but the order in which files are handed out is the same on every run.
+class SourceDiscovery {
+
+    static final Set<String> DEFAULT_EXCLUDED_DIRECTORIES = new HashSet<>(Arrays.asList(
+            ".git", ".gradle", ".idea", ".vgrtool", "build", "target", "out", "node_modules",
+            "generated", "generated-sources", "generated-test-sources"));
+
+    private static final int PREFETCH_LIMIT = 1024;
+
+    private final Options options;
+    private final List<PathMatcher> includes = new ArrayList<>();
+    private final List<PathMatcher> excludes = new ArrayList<>();
+    private final Semaphore prefetchBudget = new Semaphore(PREFETCH_LIMIT);
+    private ExecutorService listingPool;
+
+    SourceDiscovery(Options options) {
+        this.options = options;
+        FileSystem fileSystem = FileSystems.getDefault();
+        for (String glob : options.includes) {
+            includes.add(fileSystem.getPathMatcher("glob:" + glob));
+        }
+        for (String glob : options.excludes) {
+            excludes.add(fileSystem.getPathMatcher("glob:" + glob));
+        }
+    }
+
+    // Called for every directory that is not pruned, with the .gitignore rules that apply to its entries
+    interface DirectoryAction {
+        void accept(Path root, Path dir, GitIgnore ignore) throws IOException;
+    }
+
+    void forEach(Consumer<File> action) throws IOException {
+        walk(action, null);
+    }
+
+    void forEachDirectory(DirectoryAction action) throws IOException {
+        walk(file -> { }, action);
+    }
+
+    // Crawls a directory that appeared after discovery ran, as if the crawl from root had reached it
+    void forEachIn(Path root, Path dir, GitIgnore inherited, Consumer<File> fileAction, DirectoryAction directoryAction)
+            throws IOException {
+        startPool();
+        try {
+            crawl(root, dir, inherited, fileAction, directoryAction);
+        } finally {
+            listingPool.shutdownNow();
+        }
+    }
+
+    private void walk(Consumer<File> fileAction, DirectoryAction directoryAction) throws IOException {
+        startPool();
+        try {
+            for (String sourcePath : options.sourcePaths) {
+                Path root = Paths.get(sourcePath);
+                if (Files.isRegularFile(root)) {
+                    fileAction.accept(root.toFile());
+                } else {
+                    crawl(root, root, GitIgnore.EMPTY, fileAction, directoryAction);
+                }
+            }
+        } finally {
+            listingPool.shutdownNow();
+        }
+    }
+
+    private void startPool() {
+        listingPool = Executors.newFixedThreadPool(options.crawlThreads, runnable -> {
+            Thread thread = new Thread(runnable, "vgr-crawl");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void crawl(Path root, Path start, GitIgnore inherited, Consumer<File> fileAction,
+            DirectoryAction directoryAction) throws IOException {
+        Deque<CompletableFuture<Listing>> stack = new ArrayDeque<>();
+        stack.push(startListing(root, start, inherited, false));
+        while (!stack.isEmpty()) {
+            Listing listing = join(stack.pop());
+            if (listing.prefetchPermit) {
+                prefetchBudget.release();
+            }
+            if (directoryAction != null) {
+                directoryAction.accept(root, listing.dir, listing.ignore);
+            }
+            for (Path file : listing.files) {
+                fileAction.accept(file.toFile());
+            }
+            // Push in reverse so the first subdirectory is emitted next
+            for (int i = listing.directories.size() - 1; i >= 0; i--) {
+                CompletableFuture<Listing> child = listing.prefetched.get(i);
+                if (child == null) {
+                    child = startListing(root, listing.directories.get(i), listing.ignore, false);
+                }
+                stack.push(child);
+            }
+        }
+    }
+
+    // Prefetched listings hold a permit from prefetchBudget until the caller consumes them;
+    // listings the caller starts itself are bounded by the depth of its stack instead.
+    private CompletableFuture<Listing> startListing(Path root, Path dir, GitIgnore inherited, boolean prefetchPermit) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                Listing listing = listDirectory(root, dir, inherited);
+                listing.prefetchPermit = prefetchPermit;
+                // Start listing subdirectories while the caller is still emitting earlier files
+                for (Path subdirectory : listing.directories) {
+                    listing.prefetched.add(prefetchBudget.tryAcquire()
+                            ? startListing(root, subdirectory, listing.ignore, true) : null);
+                }
+                return listing;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, listingPool);
+    }
+
+    private Listing listDirectory(Path root, Path dir, GitIgnore inherited) throws IOException {
+        Listing listing = new Listing(dir, inherited.forDirectory(dir));
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                boolean isDirectory = Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS);
+                if (isDirectory && !isPruned(root, entry, listing.ignore)) {
+                    listing.directories.add(entry);
+                } else if (!isDirectory && isAccepted(root, entry, listing.ignore)) {
+                    listing.files.add(entry);
+                }
+            }
+        }
+        Collections.sort(listing.directories);
+        Collections.sort(listing.files);
+        return listing;
+    }
+
+    // Whether a crawl from root would hand out the file, for file lists that come from elsewhere
+    boolean wouldVisit(Path root, Path file) throws IOException {
+        GitIgnore ignore = GitIgnore.EMPTY.forDirectory(root);
+        Path dir = root;
+        for (Path name : root.relativize(file.getParent())) {
+            dir = dir.resolve(name);
+            if (isPruned(root, dir, ignore)) {
+                return false;
+            }
+            ignore = ignore.forDirectory(dir);
+        }
+        return isAccepted(root, file, ignore);
+    }
+
+    boolean isPruned(Path root, Path dir, GitIgnore ignore) {
+        if (!options.noDefaultExcludes && DEFAULT_EXCLUDED_DIRECTORIES.contains(dir.getFileName().toString())) {
+            return true;
+        }
+        return ignore.isIgnored(dir, true) || matchesAny(excludes, root.relativize(dir));
+    }
+
+    boolean isAccepted(Path root, Path file, GitIgnore ignore) {
+        if (!file.getFileName().toString().endsWith(".java") || ignore.isIgnored(file, false)) {
+            return false;
+        }
+        Path relative = root.relativize(file);
+        return (includes.isEmpty() || matchesAny(includes, relative)) && !matchesAny(excludes, relative);
+    }
+
+    private static boolean matchesAny(List<PathMatcher> matchers, Path path) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Listing join(CompletableFuture<Listing> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static class Listing {
+        final Path dir;
+        final GitIgnore ignore;
+        final List<Path> files = new ArrayList<>();
+        final List<Path> directories = new ArrayList<>();
+        final List<CompletableFuture<Listing>> prefetched = new ArrayList<>();
+        boolean prefetchPermit;
+
+        Listing(Path dir, GitIgnore ignore) {
+            this.dir = dir;
+            this.ignore = ignore;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+// Reads source files into buffers that each thread keeps between files, instead of allocating
+// a byte[] per file and decoding it into a fresh String. The bytes are hashed and decoded
+// straight from the buffer, so the decoded String is the only per-file copy of the text.
+// Files above MAX_RETAINED bytes are memory-mapped instead, so one huge generated file does
+// not leave every thread holding a buffer of its size.
+class SourceReader {
+
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    private static final int MAX_RETAINED = 4 * 1024 * 1024;
+    private static final ThreadLocal<SourceReader> PER_THREAD = ThreadLocal.withInitial(SourceReader::new);
+
+    // Invalid UTF-8 fails the file, as Files.readString does, instead of being decoded into
+    // replacement characters that the rewrite would then write back
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+    private ByteBuffer bytes = ByteBuffer.allocate(INITIAL_CAPACITY);
+    private CharBuffer chars = CharBuffer.allocate(INITIAL_CAPACITY);
+
+    static SourceReader forThread() {
+        return PER_THREAD.get();
+    }
+
+    // Fills in the size and hash of the file (and its bytes if keepOriginal) and returns its text
+    String read(File file, FileResult result, boolean keepOriginal) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer input = size > MAX_RETAINED
+                    ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+                    : readFully(channel, (int) size);
+            result.bytes = input.remaining();
+            result.hash = ContentHash.of(input.duplicate());
+            if (keepOriginal) {
+                result.original = new byte[input.remaining()];
+                input.duplicate().get(result.original);
+            }
+            return decode(input);
+        }
+    }
+
+    // Reads until end of file rather than trusting the size, which may change while reading
+    private ByteBuffer readFully(FileChannel channel, int size) throws IOException {
+        if (bytes.capacity() < size + 1) {
+            bytes = ByteBuffer.allocate(Math.max(size + 1, bytes.capacity() * 2));
+        }
+        bytes.clear();
+        while (channel.read(bytes) >= 0) {
+            if (!bytes.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(bytes.capacity() * 2);
+                bytes.flip();
+                larger.put(bytes);
+                bytes = larger;
+            }
+        }
+        bytes.flip();
+        ByteBuffer input = bytes;
+        if (bytes.capacity() > MAX_RETAINED) {
+            bytes = ByteBuffer.allocate(INITIAL_CAPACITY);
+        }
+        return input;
+    }
+
+    private String decode(ByteBuffer input) throws CharacterCodingException {
+        // UTF-8 never decodes to more chars than it has bytes
+        int needed = input.remaining();
+        CharBuffer output = chars.capacity() >= needed ? chars : CharBuffer.allocate(needed);
+        output.clear();
+        decoder.reset();
+        CoderResult coderResult = decoder.decode(input, output, true);
+        if (!coderResult.isUnderflow()) {
+            coderResult.throwException();
+        }
+        decoder.flush(output);
+        output.flip();
+        String text = output.toString();
+        if (output.capacity() <= MAX_RETAINED) {
+            chars = output;
+        }
+        return text;
+    }
+}
@@ -0,0 +1,420 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Keeps the original bytes of every file a run rewrites (--undo), so the run can be rolled
+// back without version control. Layout under <stateDir>/undo:
+//
+//   blobs.dat        deflated file contents, appended one after another
+//   blobs.tsv        "<hash>\t<offset>\t<deflated length>\t<length>" for each blob in blobs.dat
+//   runs/<runId>.tsv "<original hash>\t<rewritten hash>\t<path>" for each file the run rewrote
+//
+// Blobs are shared by all runs and stored once per content hash. A file's original bytes are
+// saved before it is replaced: save() hands them to a background thread, which compresses and
+// appends them, forces the blob and then the lines pointing to it to the disk, and only then
+// lets the caller go on to replace the file. Files saved while the disk is forced are stored
+// together and forced once. A run killed at any point can so be rolled back for every file it
+// replaced; a file that was saved but never replaced is found unchanged and left alone. Blob
+// data past the last index line (from a run that died mid-append) is never referenced.
+class UndoJournal {
+
+    private static final String BLOBS = "blobs.dat";
+    private static final String INDEX = "blobs.tsv";
+    private static final String RUNS = "runs";
+    private static final Entry END = new Entry(null, null, null, null);
+
+    final String runId;
+    private final Map<String, long[]> blobs;
+    private final FileChannel blobChannel;
+    private final FileChannel indexChannel;
+    private final BufferedWriter indexWriter;
+    private final FileChannel runChannel;
+    private final BufferedWriter runWriter;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile IOException failure;
+    private volatile int files;
+
+    private UndoJournal(String runId, Map<String, long[]> blobs, FileChannel blobChannel,
+            FileChannel indexChannel, FileChannel runChannel) {
+        this.runId = runId;
+        this.blobs = blobs;
+        this.blobChannel = blobChannel;
+        this.indexChannel = indexChannel;
+        this.indexWriter = writer(indexChannel);
+        this.runChannel = runChannel;
+        this.runWriter = writer(runChannel);
+        this.writer = new Thread(this::drain, "vgr-undo");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    static UndoJournal open(Path stateDir) throws IOException {
+        Path dir = stateDir.resolve("undo");
+        Path runs = dir.resolve(RUNS);
+        Files.createDirectories(runs);
+
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        String runId = timestamp;
+        for (int i = 2; Files.exists(runs.resolve(runId + ".tsv")); i++) {
+            runId = timestamp + "-" + i;
+        }
+
+        Map<String, long[]> blobs = loadIndex(dir);
+        FileChannel blobChannel = FileChannel.open(dir.resolve(BLOBS),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        blobChannel.position(blobChannel.size());
+        FileChannel indexChannel = FileChannel.open(dir.resolve(INDEX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        FileChannel runChannel = FileChannel.open(runs.resolve(runId + ".tsv"),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        return new UndoJournal(runId, blobs, blobChannel, indexChannel, runChannel);
+    }
+
+    // Channels rather than Files.newBufferedWriter, so the lines can be forced to the disk
+    private static BufferedWriter writer(FileChannel channel) {
+        return new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, long[]> loadIndex(Path dir) throws IOException {
+        Map<String, long[]> blobs = new HashMap<>();
+        Path index = dir.resolve(INDEX);
+        if (!Files.exists(index)) {
+            return blobs;
+        }
+        for (String line : Files.readAllLines(index, StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t");
+            if (fields.length != 4) {
+                continue;
+            }
+            try {
+                blobs.put(fields[0], new long[] {
+                    Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3])
+                });
+            } catch (NumberFormatException e) {
+                // A line cut short by a crash; its blob is simply stored again when needed
+            }
+        }
+        return blobs;
+    }
+
+    // Called before the file is replaced; returns once its original bytes are on the disk, and
+    // throws if they could not be stored, in which case the file must be left alone
+    void save(File file, String originalHash, String rewrittenHash, byte[] original) throws IOException {
+        Entry entry = new Entry(Manifest.key(file), originalHash, rewrittenHash, original);
+        queue.add(entry);
+        try {
+            entry.stored.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while saving the original of " + file);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not save the original of " + file + " for --undo", e.getCause());
+        }
+    }
+
+    // Waits for the background thread and closes the journal
+    void close() throws IOException {
+        queue.add(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            indexWriter.close();
+            runWriter.close();
+        } finally {
+            blobChannel.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    int files() {
+        return files;
+    }
+
+    // Once storing has failed, every later save fails too
+    private void drain() {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        List<Entry> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                boolean end = false;
+                for (Entry entry : batch) {
+                    if (entry == END) {
+                        end = true;
+                    } else if (failure == null) {
+                        store(entry, deflater);
+                    }
+                }
+                if (failure == null) {
+                    try {
+                        flush();
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                for (Entry entry : batch) {
+                    if (entry == END) {
+                        continue;
+                    }
+                    if (failure == null) {
+                        entry.stored.complete(null);
+                    } else {
+                        entry.stored.completeExceptionally(failure);
+                    }
+                }
+                if (end) {
+                    return;
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void store(Entry entry, Deflater deflater) {
+        try {
+            if (!blobs.containsKey(entry.originalHash)) {
+                byte[] deflated = deflate(entry.original, deflater);
+                long offset = blobChannel.position();
+                ByteBuffer buffer = ByteBuffer.wrap(deflated);
+                while (buffer.hasRemaining()) {
+                    blobChannel.write(buffer);
+                }
+                blobs.put(entry.originalHash, new long[] { offset, deflated.length, entry.original.length });
+                indexWriter.write(entry.originalHash + "\t" + offset + "\t" + deflated.length + "\t" + entry.original.length);
+                indexWriter.newLine();
+            }
+            runWriter.write(entry.originalHash + "\t" + entry.rewrittenHash + "\t" + entry.path);
+            runWriter.newLine();
+            files++;
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    // Blob data is forced before the index lines that point to it are written, and those
+    // before the run lines that point to them
+    private void flush() throws IOException {
+        blobChannel.force(false);
+        indexWriter.flush();
+        indexChannel.force(false);
+        runWriter.flush();
+        runChannel.force(false);
+    }
+
+    private static byte[] deflate(byte[] data, Deflater deflater) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 3 + 64);
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+        return out.toByteArray();
+    }
+
+    // args: --rollback [<runId>] <sourceDirPath> [--state-dir <dir>] [--threads <n>] [--force]
+    static int rollback(String[] args) {
+        String runId = null;
+        String sourceDir = null;
+        String stateDir = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean force = false;
+        try {
+            List<String> positional = new ArrayList<>();
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("--state-dir")) {
+                    stateDir = Options.requireValue(args, i++);
+                } else if (args[i].equals("--threads")) {
+                    threads = Options.parsePositiveInt(args[i], Options.requireValue(args, i++));
+                } else if (args[i].equals("--force")) {
+                    force = true;
+                } else if (args[i].startsWith("--")) {
+                    throw new IllegalArgumentException("Unknown rollback option: " + args[i]);
+                } else {
+                    positional.add(args[i]);
+                }
+            }
+            if (positional.isEmpty() || positional.size() > 2) {
+                throw new IllegalArgumentException("Expected [<runId>] <sourceDirPath>");
+            }
+            sourceDir = positional.get(positional.size() - 1);
+            runId = positional.size() == 2 ? positional.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Usage: java VGRTool --rollback [<runId>] <sourceDirPath> [--state-dir <dir>] [--threads <n>] [--force]");
+            return 1;
+        }
+
+        Path dir = (stateDir != null ? Paths.get(stateDir) : Options.defaultStateDir(sourceDir)).resolve("undo");
+        try {
+            if (runId == null) {
+                listRuns(dir);
+                return 0;
+            }
+            return restore(dir, runId, threads, force);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 1;
+        }
+    }
+
+    private static void listRuns(Path dir) throws IOException {
+        Path runs = dir.resolve(RUNS);
+        if (!Files.isDirectory(runs)) {
+            System.out.println("No undo journal in " + dir);
+            return;
+        }
+        List<Path> journals = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(runs, "*.tsv")) {
+            entries.forEach(journals::add);
+        }
+        Collections.sort(journals);
+        System.out.println("Runs that can be rolled back:");
+        for (Path journal : journals) {
+            String name = journal.getFileName().toString();
+            System.out.println("  " + name.substring(0, name.length() - 4) + "  "
+                    + Files.readAllLines(journal, StandardCharsets.UTF_8).size() + " files");
+        }
+    }
+
+    // Files changed again after the run are left alone unless forced, so later edits are not lost
+    private static int restore(Path dir, String runId, int threads, boolean force) throws IOException {
+        Path journal = dir.resolve(RUNS).resolve(runId + ".tsv");
+        if (!Files.exists(journal)) {
+            System.out.println("No undo journal for run " + runId + " in " + dir);
+            return 1;
+        }
+        Map<String, long[]> blobs = loadIndex(dir);
+        // A file rewritten several times in one run (--fixpoint, --watch) goes back to the content
+        // it had before the first rewrite, and is checked against the last one
+        Map<String, String[]> entries = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(journal, StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t", 3);
+            if (fields.length == 3) {
+                String[] first = entries.putIfAbsent(fields[2], fields);
+                if (first != null) {
+                    first[1] = fields[1];
+                }
+            }
+        }
+
+        AtomicInteger restored = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel blobChannel = FileChannel.open(dir.resolve(BLOBS), StandardOpenOption.READ)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (String[] entry : entries.values()) {
+                futures.add(pool.submit(() -> {
+                    Path target = Paths.get(entry[2]);
+                    try {
+                        long[] blob = blobs.get(entry[0]);
+                        if (blob == null) {
+                            throw new IOException("original content " + entry[0] + " is missing from the journal");
+                        }
+                        if (Files.exists(target)) {
+                            String current = ContentHash.of(Files.readAllBytes(target));
+                            // Saved but never replaced, when the run died in between
+                            if (current.equals(entry[0])) {
+                                restored.incrementAndGet();
+                                return;
+                            }
+                            if (!force && !current.equals(entry[1])) {
+                                throw new IOException("modified since the run, use --force to overwrite");
+                            }
+                        }
+                        byte[] original = inflate(readBlob(blobChannel, blob), (int) blob[2]);
+                        if (!ContentHash.of(original).equals(entry[0])) {
+                            throw new IOException("original content " + entry[0] + " is damaged in the journal");
+                        }
+                        AtomicFiles.replace(target, original);
+                        restored.incrementAndGet();
+                    } catch (IOException | DataFormatException e) {
+                        System.err.println("Not restored: " + target + ": " + e.getMessage());
+                        failed.incrementAndGet();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException(e);
+        } finally {
+            pool.shutdownNow();
+        }
+        System.out.println("Rolled back run " + runId + ": " + restored.get() + " files restored, "
+                + failed.get() + " failed");
+        return failed.get() == 0 ? 0 : 1;
+    }
+
+    private static byte[] readBlob(FileChannel channel, long[] blob) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) blob[1]);
+        long position = blob[0];
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("blob store is truncated");
+            }
+            position += read;
+        }
+        return buffer.array();
+    }
+
+    // A blob that ends early or is damaged fails instead of being inflated forever
+    static byte[] inflate(byte[] data, int length) throws IOException, DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] result = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                int inflated = inflater.inflate(result, offset, length - offset);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new EOFException("blob ends after " + offset + " of " + length + " bytes");
+                }
+                offset += inflated;
+            }
+            return result;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static class Entry {
+        final String path;
+        final String originalHash;
+        final String rewrittenHash;
+        final byte[] original;
+        // Completed once the entry is on the disk, or failed if it could not be stored
+        final CompletableFuture<Void> stored = new CompletableFuture<>();
+
+        Entry(String path, String originalHash, String rewrittenHash, byte[] original) {
+            this.path = path;
+            this.originalHash = originalHash;
+            this.rewrittenHash = rewrittenHash;
+            this.original = original;
+        }
+    }
+}
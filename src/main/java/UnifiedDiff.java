@@ -0,0 +1,168 @@
+import java.util.*;
+
+// Formats a unified diff from the regions a rewrite actually touched, instead of diffing
+// the whole file. Each region is {originalStart, originalEnd, revisedStart, revisedEnd} in
+// characters, regions are sorted and disjoint, and all text outside them is identical in
+// the original and the revised source.
+class UnifiedDiff {
+
+    private static final int CONTEXT_LINES = 3;
+
+    static String format(String path, String original, String revised, List<int[]> regions) {
+        List<int[]> blocks = lineAlignedBlocks(original, revised, regions);
+        if (blocks.isEmpty()) {
+            return "";
+        }
+
+        int[] originalLines = lineStarts(original);
+        int[] revisedLines = lineStarts(revised);
+
+        // Convert character blocks to line ranges
+        List<int[]> changes = new ArrayList<>();
+        for (int[] block : blocks) {
+            changes.add(new int[] {
+                lineIndex(originalLines, block[0]), lineIndex(originalLines, block[1]),
+                lineIndex(revisedLines, block[2]), lineIndex(revisedLines, block[3])
+            });
+        }
+
+        StringBuilder diff = new StringBuilder();
+        diff.append("--- a/").append(path).append('\n');
+        diff.append("+++ b/").append(path).append('\n');
+
+        int first = 0;
+        while (first < changes.size()) {
+            // Group changes whose context would overlap into one hunk
+            int last = first;
+            while (last + 1 < changes.size()
+                    && changes.get(last + 1)[0] - changes.get(last)[1] <= 2 * CONTEXT_LINES) {
+                last++;
+            }
+            appendHunk(diff, original, originalLines, revised, revisedLines, changes.subList(first, last + 1));
+            first = last + 1;
+        }
+        return diff.toString();
+    }
+
+    private static void appendHunk(StringBuilder diff, String original, int[] originalLines,
+            String revised, int[] revisedLines, List<int[]> changes) {
+        int[] firstChange = changes.get(0);
+        int[] lastChange = changes.get(changes.size() - 1);
+        int originalFrom = Math.max(0, firstChange[0] - CONTEXT_LINES);
+        int originalTo = Math.min(originalLines.length, lastChange[1] + CONTEXT_LINES);
+        int revisedFrom = firstChange[2] - (firstChange[0] - originalFrom);
+        int revisedTo = lastChange[3] + (originalTo - lastChange[1]);
+
+        diff.append("@@ -").append(range(originalFrom, originalTo - originalFrom))
+            .append(" +").append(range(revisedFrom, revisedTo - revisedFrom)).append(" @@\n");
+
+        int line = originalFrom;
+        for (int[] change : changes) {
+            for (; line < change[0]; line++) {
+                appendLine(diff, ' ', original, originalLines, line);
+            }
+            for (int i = change[0]; i < change[1]; i++) {
+                appendLine(diff, '-', original, originalLines, i);
+            }
+            for (int i = change[2]; i < change[3]; i++) {
+                appendLine(diff, '+', revised, revisedLines, i);
+            }
+            line = change[1];
+        }
+        for (; line < originalTo; line++) {
+            appendLine(diff, ' ', original, originalLines, line);
+        }
+    }
+
+    private static String range(int from, int count) {
+        return count == 0 ? from + ",0" : (from + 1) + "," + count;
+    }
+
+    private static void appendLine(StringBuilder diff, char prefix, String text, int[] lineStarts, int line) {
+        int start = lineStarts[line];
+        int end = line + 1 < lineStarts.length ? lineStarts[line + 1] : text.length();
+        diff.append(prefix).append(text, start, end);
+        if (end == start || text.charAt(end - 1) != '\n') {
+            diff.append("\n\\ No newline at end of file\n");
+        }
+    }
+
+    // Widens each region to whole lines on both sides, merging regions that end up sharing
+    // a line. Text outside the regions is common to both sources, so moving a boundary by
+    // the same distance on both sides keeps the blocks aligned.
+    private static List<int[]> lineAlignedBlocks(String original, String revised, List<int[]> regions) {
+        List<int[]> blocks = new ArrayList<>();
+        int i = 0;
+        while (i < regions.size()) {
+            int[] region = regions.get(i);
+            if (original.regionMatches(region[0], revised, region[2], region[1] - region[0])
+                    && region[1] - region[0] == region[3] - region[2]) {
+                i++;
+                continue;
+            }
+            int[] block = region.clone();
+
+            // Extend the start backwards, merging into the previous block if they meet
+            int[] previous = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+            int limit = previous == null ? block[0] : block[0] - previous[1];
+            int back = 0;
+            while (back < limit && !(atLineStart(original, block[0] - back) && atLineStart(revised, block[2] - back))) {
+                back++;
+            }
+            if (previous != null && back == limit) {
+                blocks.remove(blocks.size() - 1);
+                block[0] = previous[0];
+                block[2] = previous[2];
+            } else {
+                block[0] -= back;
+                block[2] -= back;
+            }
+
+            // Extend the end forwards, absorbing following regions that it reaches
+            i++;
+            while (true) {
+                int next = i < regions.size() ? regions.get(i)[0] : original.length();
+                int forward = 0;
+                while (block[1] + forward < next
+                        && !(atLineStart(original, block[1] + forward) && atLineStart(revised, block[3] + forward))) {
+                    forward++;
+                }
+                if (block[1] + forward == next && i < regions.size()) {
+                    block[1] = regions.get(i)[1];
+                    block[3] = regions.get(i)[3];
+                    i++;
+                    continue;
+                }
+                block[1] += forward;
+                block[3] += forward;
+                break;
+            }
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    private static boolean atLineStart(String text, int offset) {
+        return offset == 0 || offset == text.length() || text.charAt(offset - 1) == '\n';
+    }
+
+    private static int[] lineStarts(String text) {
+        List<Integer> starts = new ArrayList<>();
+        for (int offset = 0; offset < text.length(); offset++) {
+            if (offset == 0 || text.charAt(offset - 1) == '\n') {
+                starts.add(offset);
+            }
+        }
+        int[] result = new int[starts.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = starts.get(i);
+        }
+        return result;
+    }
+
+    // Index of the line starting at a line-aligned offset, or the line count at the end of the text
+    private static int lineIndex(int[] lineStarts, int offset) {
+        int index = Arrays.binarySearch(lineStarts, offset);
+        return index >= 0 ? index : -index - 1;
+    }
+}
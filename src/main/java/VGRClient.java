@@ -0,0 +1,65 @@
+import java.io.*;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+// Thin client for VGRDaemon: forwards the working directory and command line, then copies
+// the daemon's output frames to stdout and stderr and exits with the daemon's status. When
+// no daemon is listening the command runs in this process instead.
+class VGRClient {
+
+    // args: --connect <socketPath> <VGRTool arguments...>
+    static int run(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java VGRTool --connect <socketPath> <sourceDirPath> <refactoringModule> [...]");
+            return 1;
+        }
+        String[] forwarded = Arrays.copyOfRange(args, 2, args.length);
+        String rejection = VGRDaemon.rejection(forwarded);
+        if (rejection != null) {
+            System.err.println(rejection);
+            return 1;
+        }
+
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(Paths.get(args[1])));
+        } catch (IOException e) {
+            System.err.println("No VGRTool daemon on " + args[1] + ", running in-process");
+            return VGRTool.run(forwarded, null);
+        }
+
+        try (SocketChannel connection = channel) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(connection)));
+            out.writeUTF(Paths.get("").toAbsolutePath().toString());
+            out.writeInt(forwarded.length);
+            for (String arg : forwarded) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(connection)));
+            while (true) {
+                byte tag = in.readByte();
+                if (tag == VGRDaemon.EXIT) {
+                    System.out.flush();
+                    System.err.flush();
+                    return in.readInt();
+                }
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                PrintStream target = tag == VGRDaemon.STDERR ? System.err : System.out;
+                target.write(payload, 0, payload.length);
+                target.flush();
+            }
+        } catch (EOFException e) {
+            System.err.println("VGRTool daemon closed the connection before finishing");
+            return 1;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 1;
+        }
+    }
+}
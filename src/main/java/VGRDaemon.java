@@ -0,0 +1,229 @@
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+// Long-running VGRTool process listening on a Unix domain socket. Each request carries the
+// client's working directory and command line and is executed by VGRTool.run in this JVM,
+// so JDT classes stay loaded and JIT-compiled between short invocations. Requests are served
+// one at a time, because a run redirects System.out and System.err to its client.
+//
+// Frames on the socket are a tag byte followed by a payload: STDOUT and STDERR carry an int
+// length and that many bytes of output, EXIT carries the int exit status and ends a request.
+class VGRDaemon {
+
+    static final byte STDOUT = 1;
+    static final byte STDERR = 2;
+    static final byte EXIT = 3;
+
+    private final Path socketPath;
+    private final long idleTimeoutMillis;
+    private final long maxHeapBytes;
+    private volatile long lastActivity = System.currentTimeMillis();
+    private volatile boolean busy;
+
+    private VGRDaemon(Path socketPath, long idleTimeoutMillis, long maxHeapBytes) {
+        this.socketPath = socketPath;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxHeapBytes = maxHeapBytes;
+    }
+
+    // args: --daemon <socketPath> [--idle-timeout <seconds>] [--max-heap-mb <mb>]
+    static int serve(String[] args) {
+        VGRDaemon daemon;
+        try {
+            Path socketPath = Paths.get(Options.requireValue(args, 0)).toAbsolutePath();
+            long idleSeconds = 15 * 60;
+            long maxHeapMegabytes = Runtime.getRuntime().maxMemory() * 3 / 4 / (1024 * 1024);
+            for (int i = 2; i < args.length; i++) {
+                if (args[i].equals("--idle-timeout")) {
+                    idleSeconds = Options.parsePositiveInt(args[i], Options.requireValue(args, i++));
+                } else if (args[i].equals("--max-heap-mb")) {
+                    maxHeapMegabytes = Options.parsePositiveInt(args[i], Options.requireValue(args, i++));
+                } else {
+                    throw new IllegalArgumentException("Unknown daemon option: " + args[i]);
+                }
+            }
+            daemon = new VGRDaemon(socketPath, idleSeconds * 1000, maxHeapMegabytes * 1024 * 1024);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Usage: java VGRTool --daemon <socketPath> [--idle-timeout <seconds>] [--max-heap-mb <mb>]");
+            return 1;
+        }
+
+        try {
+            daemon.listen();
+            return 0;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 1;
+        }
+    }
+
+    private void listen() throws IOException {
+        if (isListening(socketPath)) {
+            throw new IOException("A daemon is already listening on " + socketPath);
+        }
+        // A socket file left behind by a daemon that was killed would make bind fail
+        Files.deleteIfExists(socketPath);
+
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vgr-daemon-idle");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            System.out.println("VGRTool daemon listening on " + socketPath);
+
+            // Closing the server channel makes the blocking accept below fail, which ends the loop
+            watchdog.scheduleWithFixedDelay(() -> {
+                if (!busy && System.currentTimeMillis() - lastActivity > idleTimeoutMillis) {
+                    System.out.println("Idle for " + idleTimeoutMillis / 1000 + " s, shutting down");
+                    closeQuietly(server);
+                }
+            }, 1, 1, TimeUnit.SECONDS);
+
+            while (true) {
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (ClosedChannelException e) {
+                    break;
+                }
+                busy = true;
+                try (SocketChannel channel = client) {
+                    handle(channel);
+                } catch (IOException e) {
+                    System.err.println("Request failed: " + e.getMessage());
+                } finally {
+                    lastActivity = System.currentTimeMillis();
+                    busy = false;
+                }
+                if (exceedsHeapCeiling()) {
+                    System.out.println("Heap usage above " + maxHeapBytes / (1024 * 1024) + " MB, shutting down");
+                    break;
+                }
+            }
+        } finally {
+            watchdog.shutdownNow();
+            Files.deleteIfExists(socketPath);
+        }
+    }
+
+    // Requests are served one at a time, so a command that never returns would block the
+    // daemon for good; null if the command line may be run here
+    static String rejection(String[] args) {
+        if (Arrays.asList(args).contains("--watch")) {
+            return "--watch cannot be run through a daemon; run it directly";
+        }
+        return null;
+    }
+
+    private void handle(SocketChannel channel) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+
+        Path workingDir = Paths.get(in.readUTF());
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readUTF();
+        }
+
+        PrintStream savedOut = System.out;
+        PrintStream savedErr = System.err;
+        PrintStream clientOut = new PrintStream(new FrameOutputStream(out, STDOUT), true, StandardCharsets.UTF_8);
+        PrintStream clientErr = new PrintStream(new FrameOutputStream(out, STDERR), true, StandardCharsets.UTF_8);
+        int status;
+        System.setOut(clientOut);
+        System.setErr(clientErr);
+        try {
+            String rejection = rejection(args);
+            if (rejection != null) {
+                System.err.println(rejection);
+                status = 1;
+            } else {
+                status = VGRTool.run(args, workingDir);
+            }
+        } catch (RuntimeException | Error e) {
+            e.printStackTrace();
+            status = 1;
+        } finally {
+            clientOut.flush();
+            clientErr.flush();
+            System.setOut(savedOut);
+            System.setErr(savedErr);
+        }
+
+        synchronized (out) {
+            out.writeByte(EXIT);
+            out.writeInt(status);
+            out.flush();
+        }
+    }
+
+    // Collects garbage before giving up, so only live data counts against the ceiling
+    private boolean exceedsHeapCeiling() {
+        Runtime runtime = Runtime.getRuntime();
+        if (runtime.totalMemory() - runtime.freeMemory() <= maxHeapBytes) {
+            return false;
+        }
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory() > maxHeapBytes;
+    }
+
+    static boolean isListening(Path socketPath) {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socketPath))) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing left to do
+        }
+    }
+
+    // Wraps everything written into length-prefixed frames with the given tag
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte tag;
+
+        FrameOutputStream(DataOutputStream out, byte tag) {
+            this.out = out;
+            this.tag = tag;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (out) {
+                out.writeByte(tag);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+}
@@ -2,92 +2,532 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.dom.*;
 import org.eclipse.jdt.core.dom.rewrite.ASTRewrite;
-import org.eclipse.jface.text.Document;
 import org.eclipse.text.edits.TextEdit;
 
 public class VGRTool {
 
+    static final String VERSION = "1.0";
+
     public static void main(String[] args) {
-        if (args.length < 2) {
-            System.out.println("Usage: java VGRTool <sourceDirPath> <refactoringModule>");
-            System.out.println("Available Modules:");
-            System.out.println(" - WrapWithCheckNotNullRefactoring");
-            System.out.println(" - AddNullChecksForNullableReferences");
-            System.out.println(" - AddNullCheckBeforeDereferenceRefactoring");
-            System.out.println(" - IntroduceLocalVariableAndNullCheckRefactoring");
-            System.out.println(" - IntroduceLocalVariableWithNullCheckRefactoring");
-            System.out.println(" - SimplifyNullCheckRefactoring");
-            System.exit(1);
+        int status;
+        if (args.length > 0 && args[0].equals("--daemon")) {
+            status = VGRDaemon.serve(args);
+        } else if (args.length > 0 && args[0].equals("--connect")) {
+            status = VGRClient.run(args);
+        } else if (args.length > 0 && args[0].equals("--rollback")) {
+            status = UndoJournal.rollback(args);
+        } else if (args.length > 0 && args[0].equals("--worker")) {
+            status = WorkerPool.serveWorker(args);
+        } else if (args.length > 0 && args[0].equals("--merge-summaries")) {
+            status = RunSummary.merge(args);
+        } else if (args.length == 1 && args[0].equals("--list-refactorings")) {
+            RefactoringEngine.knownRefactorings().forEach(System.out::println);
+            status = 0;
+        } else {
+            status = run(args, null);
+        }
+        if (status != 0) {
+            System.exit(status);
         }
+    }
 
-        String targetDir = args[0];
-        String refactoringModule = args[1];
+    // Runs one invocation and returns its exit status. The daemon calls this for each client
+    // request, with relative paths resolved against the client's working directory.
+    static int run(String[] args, Path workingDir) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            printUsage();
+            return 1;
+        }
+        if (workingDir != null) {
+            options.resolveAgainst(workingDir);
+        }
 
-        System.out.println("Processing directory: " + targetDir);
-        System.out.println("Selected Refactoring Module: " + refactoringModule);
+        // Diffs on stdout must not be interleaved with progress messages, which go to stderr instead
+        PrintStream stdout = System.out;
+        PrintStream diffStdout = null;
+        if (options.diff && options.diffFile == null) {
+            diffStdout = stdout;
+            System.setOut(System.err);
+        }
+        try {
+            return run(options, diffStdout);
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+
+    private static int run(Options options, PrintStream diffStdout) {
+        RunContext context;
+        try {
+            context = new RunContext(options, diffStdout);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 1;
+        }
+        context.log.info("Processing directory: " + String.join(", ", options.sourcePaths));
+        context.log.info("Selected Refactoring Modules: " + String.join(",", options.modules));
+        context.log.info("Parser profile: " + context.parserProfile);
+        if (context.classpath != null) {
+            context.log.info(context.classpath.format());
+        }
 
         try {
-            // Step 1: Collect all Java files in the target directory
-            List<File> javaFiles = findJavaFiles(targetDir);
+            // Step 1: Discover Java files in the target directory, or only those changed since a revision
+            FileSource javaFiles;
+            if (options.since != null) {
+                List<File> changedFiles = GitChanges.changedJavaFiles(options);
+                context.log.info("Java files changed since " + options.since + ": " + changedFiles.size());
+                javaFiles = changedFiles::forEach;
+            } else {
+                javaFiles = new SourceDiscovery(options)::forEach;
+            }
+            if (options.shard != null) {
+                context.log.info("Shard " + options.shard + (options.shard.bySize ? ", balanced by size" : ""));
+                javaFiles = options.shard.select(javaFiles, options.sourceRoot());
+            }
 
             // Step 2: Process each Java file using the selected refactoring module
-            for (File file : javaFiles) {
-                System.out.println("Processing file: " + file.getPath());
-                processFile(file, refactoringModule);
+            if (options.watch) {
+                new WatchMode(context).run();
+                return 0;
             }
+            if (options.fixpoint) {
+                new FixpointRunner(context).run(javaFiles);
+            } else {
+                processFiles(javaFiles, context);
+            }
+            context.finish();
 
-            System.out.println("Refactoring completed successfully!");
+            context.log.summary(context.summary.format());
+            if (options.summaryFile() != null) {
+                context.summary.write(options.summaryFile(),
+                        options.shard != null ? options.shard.toString() : options.targetDir);
+            }
+            if (!options.batch && options.threads > 1) {
+                context.log.info(context.heapBudget.format());
+            }
+            if (context.facts != null) {
+                context.log.info(context.facts.format());
+            }
+            context.log.info("Refactoring completed successfully!");
+            return 0;
         } catch (Exception e) {
-            e.printStackTrace();
+            context.log.error("Refactoring failed", e);
+            context.abandon();
+            return 1;
+        } finally {
+            context.log.close();
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: java VGRTool <sourceDirPath> <refactoringModule>[,<refactoringModule>...] [<sourcePath>...] [options]");
+        System.out.println("       java VGRTool --daemon <socketPath> [--idle-timeout <seconds>] [--max-heap-mb <mb>]");
+        System.out.println("       java VGRTool --connect <socketPath> <sourceDirPath> <refactoringModule> [...]");
+        System.out.println("       java VGRTool --merge-summaries <summaryFile>...");
+        System.out.println("       java VGRTool --rollback [<runId>] <sourceDirPath> [--state-dir <dir>] [--threads <n>] [--force]");
+        System.out.println("       java VGRTool --list-refactorings");
+        System.out.println("Available Modules:");
+        for (String name : RefactoringEngine.knownRefactorings()) {
+            System.out.println(" - " + name);
         }
+        System.out.println("Options:");
+        System.out.println("  --module <name>       Run another refactoring module in the same pass (repeatable)");
+        System.out.println("  --threads <n>         Process files concurrently on n worker threads (default 1)");
+        System.out.println("  --pipeline            Overlap reads and writes with parsing in a staged pipeline;");
+        System.out.println("                        --threads sizes the parse stage (default: available processors)");
+        System.out.println("  --io-threads <n>      Virtual threads per I/O stage in pipeline mode (default 16)");
+        System.out.println("  --queue-capacity <n>  Capacity of each pipeline queue (default 64)");
+        System.out.println("  --workers <k>         Process files in k child JVMs fed by this process, instead of threads");
+        System.out.println("  --batch               Parse all files in one ASTParser.createASTs batch, sharing the binding");
+        System.out.println("                        environment when a selected module needs bindings");
+        System.out.println("  --classpath <path>    Classpath used to resolve bindings for modules that need them");
+        System.out.println("  --classpath-file <file>");
+        System.out.println("                        Add the classpath listed in a file: a classpath string (as written by");
+        System.out.println("                        mvn dependency:build-classpath), one path per line, or the coordinates");
+        System.out.println("                        of mvn dependency:list, found in the local Maven repository");
+        System.out.println("  --incremental         Skip files unchanged since the last run with the same modules");
+        System.out.println("  --diff                Print unified diffs to stdout instead of rewriting files");
+        System.out.println("  --diff-file <file>    Write unified diffs to a patch file instead of rewriting files;");
+        System.out.println("                        paths are relative to <sourceDirPath> (patch -p1 -d <sourceDirPath>)");
+        System.out.println("  --since <rev>         Only process .java files changed since a git revision");
+        System.out.println("  --include <glob>      Only process files whose path relative to <sourceDirPath> matches (repeatable)");
+        System.out.println("  --exclude <glob>      Skip files and prune directories whose relative path matches (repeatable)");
+        System.out.println("  --no-default-excludes Also descend into build/, target/, .git/, generated sources, ...");
+        System.out.println("  --crawl-threads <n>   Threads listing directories during discovery (default 8)");
+        System.out.println("  --watch               Keep running and refactor .java files as they are saved");
+        System.out.println("  --debounce-ms <ms>    Quiet period that ends a burst of file events in watch mode (default 300)");
+        System.out.println("  --fixpoint            Repeat passes over the files rewritten by the previous pass until");
+        System.out.println("                        no file changes, so one module can act on another module's output");
+        System.out.println("  --max-passes <n>      Upper bound on fixpoint passes (default 10); implies --fixpoint");
+        System.out.println("  --heap-budget-mb <mb> Estimated AST memory that files parsed concurrently may use; larger");
+        System.out.println("                        files wait until earlier ones finish (default: --heap-percent of -Xmx)");
+        System.out.println("  --heap-percent <p>    Heap budget as a percentage of the maximum heap (default 60)");
+        System.out.println("  --discovery-order     With several workers, process files in discovery order instead of");
+        System.out.println("                        largest predicted parse and rewrite time first");
+        System.out.println("  --quiet               Only print the final summary and errors");
+        System.out.println("  --verbose             Also print a line for every processed file");
+        System.out.println("  --progress-interval <s>");
+        System.out.println("                        Seconds between progress lines (default 5)");
+        System.out.println("  --resume              Skip files an interrupted run already finished, as recorded in its");
+        System.out.println("                        checkpoint journal, if their content has not changed since");
+        System.out.println("  --no-checkpoint       Do not keep a checkpoint journal of finished files");
+        System.out.println("  --undo                Keep the original bytes of rewritten files so the run can be undone");
+        System.out.println("                        with --rollback; without a run id --rollback lists the runs");
+        System.out.println("  --shard <i>/<n>       Only process shard i of n, chosen by a hash of each file's relative path");
+        System.out.println("  --shard-by-size       Balance shards by total file size instead (needs identical checkouts)");
+        System.out.println("  --summary-file <file> Write the run's counters for --merge-summaries");
+        System.out.println("                        (default for shards: <stateDir>/summary-<i>-of-<n>.properties)");
+        System.out.println("  --file-timeout <s>    Give up on a file whose parse and rewrite take longer than s seconds;");
+        System.out.println("                        it is reported and left untouched (default 120)");
+        System.out.println("  --no-file-timeout     Let every file take as long as it needs");
+        System.out.println("  --facts-cache         Keep per-content analysis facts, which let later runs skip parsing");
+        System.out.println("                        files none of their modules would change");
+        System.out.println("  --facts-cache-mb <mb> Size of the facts cache; least recently used entries go first");
+        System.out.println("                        (default 32); implies --facts-cache");
+        System.out.println("  --state-dir <dir>     Directory for run state such as the manifest (default <sourceDirPath>/.vgrtool)");
+        System.out.println("Daemon options:");
+        System.out.println("  --idle-timeout <s>    Shut the daemon down after s seconds without requests (default 900)");
+        System.out.println("  --max-heap-mb <mb>    Shut the daemon down when live heap exceeds mb after a request");
+        System.out.println("                        (default 75% of -Xmx); --connect falls back to an in-process run");
+        System.out.println("                        when no daemon is listening");
     }
 
-    private static List<File> findJavaFiles(String directory) throws IOException {
-        List<File> javaFiles = new ArrayList<>();
-        Files.walk(Paths.get(directory))
-             .filter(path -> path.toString().endsWith(".java"))
-             .forEach(path -> javaFiles.add(path.toFile()));
-        return javaFiles;
+    // Where the files to process come from: the streaming directory crawl or a fixed list
+    interface FileSource {
+        void forEach(Consumer<File> action) throws IOException;
+    }
+
+    // Processes a set of files in the execution mode selected by the options
+    static void processFiles(FileSource source, RunContext context) throws IOException, InterruptedException {
+        ProgressReporter progress = null;
+        FileSource javaFiles = source;
+        if (!context.options.quiet) {
+            ProgressReporter reporter = new ProgressReporter(context.log, context.options.progressSeconds);
+            javaFiles = action -> {
+                source.forEach(file -> {
+                    reporter.discovered();
+                    action.accept(file);
+                });
+                reporter.discoveryDone();
+            };
+            progress = reporter;
+            context.progress = reporter;
+        }
+        try {
+            processWith(javaFiles, context);
+        } finally {
+            if (progress != null) {
+                progress.stop();
+                context.progress = null;
+            }
+        }
+    }
+
+    private static void processWith(FileSource javaFiles, RunContext context) throws IOException, InterruptedException {
+        if (context.options.workers > 0) {
+            new WorkerPool(context).run(schedule(javaFiles, context));
+        } else if (context.options.batch) {
+            new BatchProcessor(context).run(collect(javaFiles));
+        } else if (context.options.pipeline) {
+            new PipelineRunner(context).run(schedule(javaFiles, context));
+        } else if (context.options.threads > 1) {
+            // Ordering by cost needs the whole list; --discovery-order keeps streaming instead
+            processInParallel(context.costModel != null ? schedule(javaFiles, context)::forEach : javaFiles, context);
+        } else {
+            javaFiles.forEach(file -> {
+                context.log.file("Processing file: " + file.getPath());
+                report(processFile(file, context), context);
+            });
+        }
+    }
+
+    private static List<File> collect(FileSource source) throws IOException {
+        List<File> files = new ArrayList<>();
+        source.forEach(files::add);
+        return files;
+    }
+
+    private static List<File> schedule(FileSource source, RunContext context) throws IOException {
+        List<File> files = collect(source);
+        return context.costModel != null ? context.costModel.largestFirst(files) : files;
+    }
+
+    // Files are submitted as discovery hands them out and reported in that same order, so
+    // the log and the summary are identical to a sequential run regardless of thread timing.
+    // Only a few unfinished files per thread are allowed, which throttles discovery to
+    // processing speed. A slow file only holds back the reporting of the files after it, which
+    // wait finished in the queue; the other threads keep taking new files meanwhile.
+    private static void processInParallel(FileSource javaFiles, RunContext context) throws IOException {
+        int threads = context.options.threads;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Semaphore unfinished = new Semaphore(4 * threads);
+        Deque<Map.Entry<File, Future<FileResult>>> inFlight = new ArrayDeque<>();
+        try {
+            javaFiles.forEach(file -> {
+                unfinished.acquireUninterruptibly();
+                inFlight.add(new AbstractMap.SimpleEntry<>(file, pool.submit(() -> {
+                    try {
+                        return processFile(file, context);
+                    } finally {
+                        unfinished.release();
+                    }
+                })));
+                while (!inFlight.isEmpty() && inFlight.peek().getValue().isDone()) {
+                    reportNext(inFlight, context);
+                }
+            });
+            while (!inFlight.isEmpty()) {
+                reportNext(inFlight, context);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void reportNext(Deque<Map.Entry<File, Future<FileResult>>> inFlight, RunContext context) {
+        Map.Entry<File, Future<FileResult>> next = inFlight.poll();
+        context.log.file("Processing file: " + next.getKey().getPath());
+        FileResult result;
+        try {
+            result = next.getValue().get();
+        } catch (ExecutionException e) {
+            result = new FileResult(next.getKey());
+            result.error = e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result = new FileResult(next.getKey());
+            result.error = e;
+        }
+        report(result, context);
+    }
+
+    static void report(FileResult result, RunContext context) {
+        if (result.skipped) {
+            context.log.file("Unchanged since last run, skipped: " + result.file.getPath());
+        } else if (result.success && result.diff != null) {
+            if (result.diff.isEmpty()) {
+                context.log.file("No changes: " + result.file.getPath());
+            } else {
+                context.emitDiff(result.diff);
+                context.log.file("Diff written for: " + result.file.getPath());
+            }
+        } else if (result.success && !result.written) {
+            context.log.file("No changes, file left untouched: " + result.file.getPath());
+        } else if (result.success) {
+            context.log.file("Refactored file saved: " + result.file.getPath());
+        } else if (result.timedOut) {
+            context.log.error("Timed out after " + context.options.fileTimeoutSeconds + " s, skipped: "
+                    + result.file.getPath(), null);
+        } else {
+            context.log.error("Error processing file: " + result.file.getPath(), result.error);
+        }
+        context.record(result);
     }
 
-    private static void processFile(File file, String refactoringModule) {
+    static FileResult processFile(File file, RunContext context) {
+        FileResult result = new FileResult(file);
+        context.started(file);
         try {
             // Step 3: Read the file content
-            String content = Files.readString(file.toPath());
-            Document document = new Document(content);
+            String content = readSource(file, result, context);
+            if (context.isUnchanged(result)) {
+                result.skipped = true;
+                return result;
+            }
+            if (leftAloneByFacts(result, context)) {
+                return result;
+            }
+
+            // Steps 4-7: Parse, extract nullable expressions and apply the refactorings
+            String refactoredSourceCode = refactorSource(content, context, result);
+
+            // Step 8: Write the refactored code back to the file
+            saveResult(result, refactoredSourceCode, context);
+
+        } catch (Exception e) {
+            result.error = e;
+        }
+        return result;
+    }
+
+    // The three stages below are also run individually by PipelineRunner, which puts
+    // the blocking I/O stages and the CPU-bound refactoring stage on separate threads.
+
+    static String readSource(File file, FileResult result, RunContext context) throws IOException {
+        return SourceReader.forThread().read(file, result, context.keepOriginals);
+    }
+
+    // True when the facts cache shows that none of the selected modules has anything to do in
+    // this content, which is then reported as left untouched without being parsed
+    static boolean leftAloneByFacts(FileResult result, RunContext context) {
+        if (context.facts == null || !context.facts.leavesUnchanged(result.hash, context.options.modules)) {
+            return false;
+        }
+        result.outputHash = result.hash;
+        result.diff = context.diffMode ? "" : null;
+        result.original = null;
+        result.success = true;
+        return true;
+    }
+
+    // Waits for heap budget before parsing, so large files are not parsed all at once. The
+    // file's time budget starts once it is admitted. A parse abandoned at the deadline keeps
+    // its heap reservation until it finishes in the background, without counting as running.
+    static String refactorSource(String content, RunContext context, FileResult result) throws InterruptedException {
+        long reservation = context.heapBudget.acquire(result.bytes);
+        CompletableFuture<CompilationUnit> parse = null;
+        try {
+            FileDeadline deadline = FileDeadline.start(context.options.fileTimeoutSeconds);
 
             // Step 4: Parse the content into an AST
+            long start = System.nanoTime();
             ASTParser parser = ASTParser.newParser(AST.JLS15); // Use Java 17
+            context.parserProfile.configure(parser, JavaCore.getOptions());
+            if (context.parserProfile.bindings) {
+                parser.setEnvironment(context.classpath.classpath(), context.classpath.sourcepath(),
+                        new String[] { "UTF-8" }, true);
+                parser.setUnitName(result.file.getPath());
+            }
             parser.setSource(content.toCharArray());
-            CompilationUnit cu = (CompilationUnit) parser.createAST(null);
+            parse = deadline.submit(() -> (CompilationUnit) parser.createAST(deadline));
+            CompilationUnit cu = deadline.await(parse);
+            result.parseNanos = System.nanoTime() - start;
+            deadline.check();
 
-            // Step 5: Extract nullable expressions
-            Set<Expression> nullableExpressions = extractExpressionsPossiblyNull(cu);
+            return refactorUnit(cu, content, context, result, deadline);
+        } catch (OperationCanceledException e) {
+            result.timedOut = true;
+            throw e;
+        } finally {
+            if (parse != null) {
+                context.heapBudget.release(reservation, parse);
+            } else {
+                context.heapBudget.release(reservation);
+            }
+        }
+    }
 
-            // Step 6: Initialize RefactoringEngine with the selected module
-            List<String> selectedModules = Collections.singletonList(refactoringModule);
-            RefactoringEngine refactoringEngine = new RefactoringEngine(selectedModules, nullableExpressions);
+    // Steps 5-7 on an already parsed unit; BatchProcessor calls this for each AST it is handed,
+    // with a time budget covering only the rewrite since the units were parsed together.
+    static String refactorUnit(CompilationUnit cu, String content, RunContext context, FileResult result) {
+        try {
+            return refactorUnit(cu, content, context, result, FileDeadline.start(context.options.fileTimeoutSeconds));
+        } catch (OperationCanceledException e) {
+            result.timedOut = true;
+            throw e;
+        }
+    }
 
-            // Step 7: Apply refactorings using RefactoringEngine
-            String refactoredSourceCode = refactoringEngine.applyRefactorings(cu, content);
+    private static String refactorUnit(CompilationUnit cu, String content, RunContext context, FileResult result,
+            FileDeadline deadline) {
+        long start = System.nanoTime();
+        try {
+            return rewriteUnit(cu, content, context, result, deadline);
+        } finally {
+            result.rewriteNanos = System.nanoTime() - start;
+        }
+    }
 
-            // Step 8: Write the refactored code back to the file
-            Files.writeString(file.toPath(), refactoredSourceCode);
-            System.out.println("Refactored file saved: " + file.getPath());
+    private static String rewriteUnit(CompilationUnit cu, String content, RunContext context, FileResult result,
+            FileDeadline deadline) {
+        // Step 5: Extract nullable expressions
+        Set<Expression> nullableExpressions = new HashSet<>();
+        // Facts describe the full syntax tree, which a parse without method bodies or with
+        // recovered statements does not produce
+        RefactoringEngine.CandidateCounter counter = context.facts != null && result.hash != null
+                && context.parserProfile.methodBodies && !context.parserProfile.statementsRecovery
+                ? new RefactoringEngine.CandidateCounter(nullableExpressions)
+                : null;
+        extractExpressionsPossiblyNull(cu, nullableExpressions, counter, deadline);
+        if (counter != null) {
+            context.facts.record(result.hash, counter.counts);
+        }
 
-        } catch (Exception e) {
-            System.err.println("Error processing file: " + file.getPath());
-            e.printStackTrace();
+        // Step 6: Initialize RefactoringEngine with all selected modules, sharing one parse and one rewrite
+        RefactoringEngine refactoringEngine = new RefactoringEngine(context.options.modules, nullableExpressions);
+
+        // Step 7: Apply refactorings using RefactoringEngine
+        if (!context.diffMode) {
+            return refactoringEngine.applyRefactorings(cu, content, null, deadline);
         }
+        List<int[]> changedRegions = new ArrayList<>();
+        String refactoredSourceCode = refactoringEngine.applyRefactorings(cu, content, changedRegions, deadline);
+        result.diff = UnifiedDiff.format(context.relativePath(result.file), content, refactoredSourceCode, changedRegions);
+        return refactoredSourceCode;
     }
 
-    private static Set<Expression> extractExpressionsPossiblyNull(CompilationUnit cu) {
-        Set<Expression> expressions = new HashSet<>();
+    // In diff mode the source tree is left alone; the diff is emitted when the result is reported
+    static void saveResult(FileResult result, String refactoredSourceCode, RunContext context) throws IOException {
+        if (!context.diffMode) {
+            writeSource(result, refactoredSourceCode, context);
+        }
+        // A worker process hands a rewritten file with its original bytes to the coordinator
+        if (result.replacement == null) {
+            result.original = null;
+        }
+        result.success = true;
+    }
+
+    // Leaves the file untouched (contents and mtime) when the refactorings produced the same
+    // bytes; equal length and equal SHA-256 stand in for a byte comparison, since both hashes
+    // are computed anyway and the original bytes need not be kept alive until now. A worker
+    // process with an undo journal leaves writing to the coordinator, which keeps the journal.
+    static void writeSource(FileResult result, String refactoredSourceCode, RunContext context) throws IOException {
+        byte[] bytes = refactoredSourceCode.getBytes(StandardCharsets.UTF_8);
+        result.outputHash = ContentHash.of(bytes);
+        if (bytes.length == result.bytes && result.outputHash.equals(result.hash)) {
+            return;
+        }
+        if (context.worker && context.keepOriginals) {
+            result.replacement = bytes;
+            return;
+        }
+        replace(result, bytes, context);
+    }
+
+    // Changed files are replaced through AtomicFiles, so readers never see a partially written
+    // source file and symbolic links stay links. With an undo journal the original bytes are on
+    // the disk before the file is replaced.
+    static void replace(FileResult result, byte[] bytes, RunContext context) throws IOException {
+        if (context.undo != null) {
+            context.undo.save(result.file, result.hash, result.outputHash, result.original);
+        }
+        AtomicFiles.replace(result.file.toPath(), bytes);
+        result.written = true;
+        result.original = null;
+    }
+
+    // Also counts the candidates of every module when counter is non-null, in the same traversal
+    private static void extractExpressionsPossiblyNull(CompilationUnit cu, Set<Expression> expressions,
+            RefactoringEngine.CandidateCounter counter, FileDeadline deadline) {
         cu.accept(new ASTVisitor() {
+            @Override
+            public void preVisit(ASTNode node) {
+                deadline.check();
+            }
+
+            @Override
+            public void postVisit(ASTNode node) {
+                if (counter != null) {
+                    counter.count(node);
+                }
+            }
+
             @Override
             public boolean visit(MethodInvocation node) {
                 if (node.getExpression() != null) {
@@ -104,6 +544,5 @@ public class VGRTool {
                 return super.visit(node);
             }
         });
-        return expressions;
     }
 }
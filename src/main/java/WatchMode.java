@@ -0,0 +1,143 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+// Keeps running after startup and refactors .java files as they are saved. Every directory
+// that discovery would crawl is registered with a WatchService; events are collected until
+// no new event has arrived for the debounce interval, and then only the touched files are
+// processed, in the same JVM so JDT stays loaded and JIT-compiled between saves.
+//
+// Files this mode rewrites itself raise events too. Their content hash is remembered after
+// each write, and an event for a file whose content still has that hash is ignored.
+class WatchMode {
+
+    private final RunContext context;
+    private final SourceDiscovery discovery;
+    private final Map<WatchKey, WatchedDirectory> watched = new HashMap<>();
+    private final Map<Path, String> lastWritten = new ConcurrentHashMap<>();
+    private WatchService watchService;
+
+    WatchMode(RunContext context) {
+        this.context = context;
+        this.discovery = new SourceDiscovery(context.options);
+    }
+
+    void run() throws IOException, InterruptedException {
+        context.resultListener = result -> {
+            if (result.written) {
+                lastWritten.put(key(result.file), result.outputHash);
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                context.finish();
+                context.log.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "vgr-watch-shutdown"));
+
+        watchService = FileSystems.getDefault().newWatchService();
+        discovery.forEachDirectory(this::register);
+        context.log.info("Watching " + watched.size() + " directories for changes, press Ctrl+C to stop");
+
+        Set<Path> pending = new TreeSet<>();
+        while (true) {
+            // Block until something happens, then keep collecting until the burst is over
+            WatchKey key = pending.isEmpty()
+                    ? watchService.take()
+                    : watchService.poll(context.options.debounceMillis, TimeUnit.MILLISECONDS);
+            if (key == null) {
+                processPending(pending);
+                pending.clear();
+                continue;
+            }
+            WatchedDirectory directory = watched.get(key);
+            if (directory != null) {
+                collectEvents(key, directory, pending);
+            }
+            if (!key.reset()) {
+                watched.remove(key);
+            }
+        }
+    }
+
+    private void collectEvents(WatchKey key, WatchedDirectory directory, Set<Path> pending) throws IOException {
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                context.log.error("Too many file events in " + directory.dir + ", some changes may have been missed", null);
+                continue;
+            }
+            Path path = directory.dir.resolve((Path) event.context());
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                // A new directory may already contain files by the time it is registered
+                if (event.kind() == ENTRY_CREATE && !discovery.isPruned(directory.root, path, directory.ignore)) {
+                    discovery.forEachIn(directory.root, path, directory.ignore,
+                            file -> pending.add(file.toPath()), this::register);
+                }
+            } else if (event.kind() != ENTRY_DELETE && discovery.isAccepted(directory.root, path, directory.ignore)) {
+                pending.add(path);
+            }
+        }
+    }
+
+    private void register(Path root, Path dir, GitIgnore ignore) throws IOException {
+        WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        watched.put(key, new WatchedDirectory(root, dir, ignore));
+    }
+
+    private void processPending(Set<Path> pending) throws IOException, InterruptedException {
+        List<File> files = new ArrayList<>();
+        for (Path path : pending) {
+            if (!Files.isRegularFile(path) || isOwnWrite(path)) {
+                continue;
+            }
+            files.add(path.toFile());
+        }
+        if (files.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        int failedBefore = context.summary.getFailed();
+        VGRTool.processFiles(files::forEach, context);
+        if (context.manifest != null) {
+            context.manifest.save();
+        }
+        context.log.summary(String.format("Processed %d changed files in %d ms, %d failed", files.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), context.summary.getFailed() - failedBefore));
+    }
+
+    private boolean isOwnWrite(Path path) throws IOException {
+        String written = lastWritten.get(key(path.toFile()));
+        if (written == null) {
+            return false;
+        }
+        try {
+            return written.equals(ContentHash.of(Files.readAllBytes(path)));
+        } catch (NoSuchFileException e) {
+            return true;
+        }
+    }
+
+    private static Path key(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+    private static class WatchedDirectory {
+        final Path root;
+        final Path dir;
+        final GitIgnore ignore;
+
+        WatchedDirectory(Path root, Path dir, GitIgnore ignore) {
+            this.root = root;
+            this.dir = dir;
+            this.ignore = ignore;
+        }
+    }
+}
@@ -0,0 +1,436 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Processes files in K child JVMs (--workers) instead of K threads of this one. JDT keeps
+// global caches and locks that stop in-process scaling at a handful of threads; separate
+// processes share nothing. Each child is this program started with --worker and the same
+// command line, and processes the files it is sent one at a time.
+//
+// Children pull work: each holds at most two batches of paths, and asks for another on its
+// stdout when it finishes one, so a child that gets fast files keeps taking work off the
+// shared queue while one stuck on a huge file does not (the same balancing work stealing
+// gives). Batches shrink towards the end of the queue so the children finish together.
+// Results come back per file and are reported here in input order, so manifests, journals,
+// diffs and the summary are kept by this process exactly as for in-process threads.
+//
+// A child that dies fails the file it was working on; the other files it had been sent go
+// back on the queue.
+//
+// With --undo a child does not write the files it rewrites. It sends their rewritten bytes
+// with the original ones, and this process saves the originals in its undo journal before
+// replacing the files, on the reader thread of each child.
+//
+// Frames to a child: BATCH <count> (<index> <path>)*, or STOP. Frames from a child: RESULT
+// with the fields of a FileResult, or DONE after the last file of a batch. A child's log
+// goes to its stderr, which is this process's stderr.
+class WorkerPool {
+
+    static final byte BATCH = 1;
+    static final byte STOP = 2;
+    static final byte RESULT = 3;
+    static final byte DONE = 4;
+
+    private static final int MAX_BATCH = 32;
+    private static final int BATCHES_AHEAD = 2;
+
+    private final RunContext context;
+    private final Options options;
+    private List<File> files;
+    private List<CompletableFuture<FileResult>> results;
+    private int nextFile;
+    // Files sent to a child that died before starting them
+    private final Deque<Integer> requeued = new ArrayDeque<>();
+    private final List<Worker> idle = new ArrayList<>();
+    private int unfinished;
+    private final AtomicInteger running = new AtomicInteger();
+
+    WorkerPool(RunContext context) {
+        this.context = context;
+        this.options = context.options;
+    }
+
+    void run(List<File> files) throws IOException, InterruptedException {
+        this.files = files;
+        this.results = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            results.add(new CompletableFuture<>());
+        }
+
+        unfinished = files.size();
+        List<Worker> workers = new ArrayList<>();
+        int count = Math.max(1, Math.min(options.workers, files.size()));
+        running.set(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                Worker worker = new Worker(i + 1, start());
+                workers.add(worker);
+                for (int b = 0; b < BATCHES_AHEAD; b++) {
+                    feed(worker);
+                }
+                worker.reader.start();
+            }
+
+            for (int i = 0; i < files.size(); i++) {
+                context.log.file("Processing file: " + files.get(i).getPath());
+                FileResult result = results.get(i).join();
+                VGRTool.report(result, context);
+            }
+            for (Worker worker : workers) {
+                worker.reader.join();
+                worker.process.waitFor();
+            }
+        } finally {
+            for (Worker worker : workers) {
+                if (worker.process.isAlive()) {
+                    worker.process.destroy();
+                }
+            }
+        }
+
+        context.log.info("Worker processes (" + count + "):");
+        for (Worker worker : workers) {
+            context.log.info(worker.format());
+        }
+    }
+
+    // The same java binary, JVM options and classpath as this process
+    private Process start() throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command()
+                .orElse(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java"));
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            // A debugger or agent listening on a fixed port can only be attached once
+            if (!argument.startsWith("-agentlib") && !argument.startsWith("-javaagent")
+                    && !argument.startsWith("-Xrunjdwp") && !argument.equals("-Xdebug")) {
+                command.add(argument);
+            }
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(VGRTool.class.getName());
+        command.add("--worker");
+        command.addAll(Arrays.asList(options.args));
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        if (options.workingDir != null) {
+            builder.directory(options.workingDir.toFile());
+        }
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return builder.start();
+    }
+
+    // Smaller batches near the end of the queue keep the last children from idling
+    private synchronized int[] takeBatch() {
+        int remaining = requeued.size() + files.size() - nextFile;
+        int size = Math.max(1, Math.min(MAX_BATCH, remaining / (options.workers * 4)));
+        size = Math.min(size, remaining);
+        int[] batch = new int[size];
+        for (int i = 0; i < size; i++) {
+            batch[i] = requeued.isEmpty() ? nextFile++ : requeued.poll();
+        }
+        return batch;
+    }
+
+    // Sends the next batch. With the queue empty a child waits until every file is finished,
+    // since files may still come back from a child that dies; then it is stopped.
+    private synchronized void feed(Worker worker) throws IOException {
+        if (worker.stopped) {
+            return;
+        }
+        int[] batch = takeBatch();
+        if (batch.length > 0) {
+            worker.send(batch);
+        } else if (unfinished == 0) {
+            worker.stop();
+        } else if (!idle.contains(worker)) {
+            idle.add(worker);
+        }
+    }
+
+    private synchronized void requeue(List<Integer> indexes) {
+        requeued.addAll(indexes);
+        while (!requeued.isEmpty() && !idle.isEmpty()) {
+            Worker worker = idle.remove(0);
+            try {
+                feed(worker);
+            } catch (IOException e) {
+                // That child is gone too; its reader puts the batch back once more
+            }
+        }
+    }
+
+    private void complete(int index, FileResult result) {
+        results.get(index).complete(result);
+        synchronized (this) {
+            if (--unfinished > 0) {
+                return;
+            }
+            for (Worker worker : idle) {
+                try {
+                    worker.stop();
+                } catch (IOException e) {
+                    // Already gone, which is what stopping it was for
+                }
+            }
+            idle.clear();
+        }
+    }
+
+    // Called as each child's results end. The remaining children take over the queue; once
+    // none is left, whatever is still queued fails instead of waiting forever.
+    private void workerExited(Worker worker) {
+        synchronized (this) {
+            idle.remove(worker);
+        }
+        if (running.decrementAndGet() > 0) {
+            return;
+        }
+        List<Integer> rest = new ArrayList<>();
+        synchronized (this) {
+            rest.addAll(requeued);
+            requeued.clear();
+            while (nextFile < files.size()) {
+                rest.add(nextFile++);
+            }
+        }
+        for (int index : rest) {
+            FileResult result = new FileResult(files.get(index));
+            result.error = new IOException("No worker process left to process this file");
+            complete(index, result);
+        }
+    }
+
+    private class Worker {
+        final int id;
+        final Process process;
+        final DataOutputStream out;
+        final DataInputStream in;
+        final Thread reader;
+        // In the order sent, so the first one is the file the child is working on
+        final Set<Integer> outstanding = new LinkedHashSet<>();
+        boolean stopped;
+        int processed;
+        long busyNanos;
+        long startNanos = System.nanoTime();
+
+        Worker(int id, Process process) {
+            this.id = id;
+            this.process = process;
+            this.out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            this.in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+            this.reader = new Thread(this::readResults, "vgr-worker-" + id);
+            reader.setDaemon(true);
+        }
+
+        void send(int[] batch) throws IOException {
+            out.writeByte(BATCH);
+            out.writeInt(batch.length);
+            for (int index : batch) {
+                synchronized (outstanding) {
+                    outstanding.add(index);
+                }
+                context.started(files.get(index));
+                out.writeInt(index);
+                writeString(out, files.get(index).getAbsolutePath());
+            }
+            out.flush();
+        }
+
+        void stop() throws IOException {
+            stopped = true;
+            out.writeByte(STOP);
+            out.flush();
+        }
+
+        void readResults() {
+            try {
+                while (true) {
+                    byte tag = in.readByte();
+                    if (tag == DONE) {
+                        feed(this);
+                        continue;
+                    }
+                    int index = in.readInt();
+                    FileResult result = readResult(in, files.get(index));
+                    if (result.replacement != null) {
+                        writeReplacement(result);
+                    }
+                    synchronized (outstanding) {
+                        outstanding.remove(index);
+                    }
+                    processed++;
+                    busyNanos += result.parseNanos + result.rewriteNanos;
+                    complete(index, result);
+                }
+            } catch (IOException e) {
+                // EOF after STOP is the normal end; anything still outstanding was lost with the child
+            } finally {
+                List<Integer> lost;
+                synchronized (outstanding) {
+                    lost = new ArrayList<>(outstanding);
+                    outstanding.clear();
+                }
+                // The file being worked on may well be what killed the child, so only the others
+                // are given to another child
+                if (!lost.isEmpty()) {
+                    FileResult result = new FileResult(files.get(lost.get(0)));
+                    result.error = new IOException("Worker process " + id + " exited while processing this file");
+                    complete(lost.get(0), result);
+                    requeue(lost.subList(1, lost.size()));
+                }
+                workerExited(this);
+            }
+        }
+
+        // A file the child rewrote under --undo, written here after its original is journaled
+        private void writeReplacement(FileResult result) {
+            try {
+                VGRTool.replace(result, result.replacement, context);
+            } catch (IOException e) {
+                result.success = false;
+                result.error = e;
+            }
+            result.replacement = null;
+            result.original = null;
+        }
+
+        String format() {
+            double seconds = Math.max((System.nanoTime() - startNanos) / 1e9, 1e-9);
+            return String.format("  worker %d: %d files, %.1f files/s, %.0f%% parsing and rewriting, exit status %d",
+                    id, processed, processed / seconds, 100.0 * busyNanos / 1e9 / seconds,
+                    process.exitValue());
+        }
+    }
+
+    // args: --worker <the coordinator's arguments>
+    static int serveWorker(String[] args) {
+        // The protocol owns stdout; anything printed goes to stderr instead
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+        System.setOut(System.err);
+
+        RunContext context;
+        try {
+            Options options = Options.parse(Arrays.copyOfRange(args, 1, args.length));
+            options.workers = 0;
+            options.threads = 1;
+            options.quiet = true;
+            options.verbose = false;
+            context = new RunContext(options, null, true);
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+            return 1;
+        }
+
+        try {
+            while (in.readByte() == BATCH) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    int index = in.readInt();
+                    FileResult result = VGRTool.processFile(new File(readString(in)), context);
+                    out.writeByte(RESULT);
+                    out.writeInt(index);
+                    writeResult(out, result);
+                    out.flush();
+                }
+                out.writeByte(DONE);
+                out.flush();
+            }
+            return 0;
+        } catch (EOFException e) {
+            // The coordinator went away
+            return 1;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 1;
+        } finally {
+            context.log.close();
+        }
+    }
+
+    private static void writeResult(DataOutputStream out, FileResult result) throws IOException {
+        out.writeLong(result.bytes);
+        writeString(out, result.hash);
+        writeString(out, result.outputHash);
+        out.writeBoolean(result.success);
+        out.writeBoolean(result.skipped);
+        out.writeBoolean(result.written);
+        out.writeBoolean(result.timedOut);
+        writeString(out, result.diff);
+        String error = null;
+        if (result.error != null) {
+            StringWriter trace = new StringWriter();
+            result.error.printStackTrace(new PrintWriter(trace));
+            error = trace.toString().stripTrailing();
+        }
+        writeString(out, error);
+        out.writeLong(result.parseNanos);
+        out.writeLong(result.rewriteNanos);
+        writeBytes(out, result.original);
+        writeBytes(out, result.replacement);
+    }
+
+    private static FileResult readResult(DataInputStream in, File file) throws IOException {
+        FileResult result = new FileResult(file);
+        result.bytes = in.readLong();
+        result.hash = readString(in);
+        result.outputHash = readString(in);
+        result.success = in.readBoolean();
+        result.skipped = in.readBoolean();
+        result.written = in.readBoolean();
+        result.timedOut = in.readBoolean();
+        result.diff = readString(in);
+        String error = readString(in);
+        result.error = error != null ? new RemoteFailure(error) : null;
+        result.parseNanos = in.readLong();
+        result.rewriteNanos = in.readLong();
+        result.original = readBytes(in);
+        result.replacement = readBytes(in);
+        return result;
+    }
+
+    // Length-prefixed rather than writeUTF, which is limited to 64 KB
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+    }
+
+    // An exception raised in a child, carried over as its printed stack trace
+    private static class RemoteFailure extends Exception {
+        RemoteFailure(String trace) {
+            super(trace, null, false, false);
+        }
+
+        @Override
+        public String toString() {
+            return getMessage();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CheckpointTest {
+
+    private static final String CONFIG = "1.0 NullabilityRefactoring";
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Path stateDir;
+    private File first;
+    private File second;
+
+    @Before
+    public void createFiles() throws IOException {
+        stateDir = temp.getRoot().toPath().resolve(".vgrtool");
+        first = temp.newFile("First.java");
+        second = temp.newFile("Second.java");
+    }
+
+    @Test
+    public void runWithoutRewritesLeavesNothingBehind() throws IOException {
+        Checkpoint checkpoint = Checkpoint.open(stateDir, CONFIG, false);
+        checkpoint.record(first, "a", false);
+        checkpoint.record(second, "b", false);
+        assertFalse(Files.exists(stateDir));
+        checkpoint.complete();
+        assertFalse(Files.exists(stateDir));
+    }
+
+    @Test
+    public void firstRewriteStartsJournal() throws IOException {
+        Checkpoint checkpoint = Checkpoint.open(stateDir, CONFIG, false);
+        checkpoint.record(first, "a", false);
+        checkpoint.record(second, "b", true);
+        checkpoint.close();
+
+        Checkpoint resumed = Checkpoint.open(stateDir, CONFIG, true);
+        assertEquals(2, resumed.resumableFiles());
+        assertTrue(resumed.isCompleted(first, "a"));
+        assertTrue(resumed.isCompleted(second, "b"));
+        assertFalse(resumed.isCompleted(second, "c"));
+        assertEquals(0, Checkpoint.open(stateDir, "1.0 SimplifyNullCheckRefactoring", true).resumableFiles());
+    }
+
+    @Test
+    public void completedRunRemovesJournalAndCreatedDirectory() throws IOException {
+        Checkpoint checkpoint = Checkpoint.open(stateDir, CONFIG, false);
+        checkpoint.record(first, "a", true);
+        assertTrue(Files.exists(stateDir.resolve(Checkpoint.FILE_NAME)));
+        checkpoint.complete();
+        assertFalse(Files.exists(stateDir));
+    }
+
+    @Test
+    public void completedRunKeepsOtherState() throws IOException {
+        Files.createDirectories(stateDir);
+        Files.writeString(stateDir.resolve("manifest.tsv"), "");
+        Checkpoint checkpoint = Checkpoint.open(stateDir, CONFIG, false);
+        checkpoint.record(first, "a", true);
+        checkpoint.complete();
+        assertFalse(Files.exists(stateDir.resolve(Checkpoint.FILE_NAME)));
+        assertTrue(Files.exists(stateDir.resolve("manifest.tsv")));
+    }
+}
@@ -0,0 +1,74 @@
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GitChangesTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Path repo;
+
+    @Before
+    public void createRepository() throws Exception {
+        repo = temp.getRoot().toPath().toRealPath();
+        assumeTrue(git("init", "-q"));
+        write("src/Old.java");
+        assumeTrue(git("add", ".") && git("-c", "user.name=test", "-c", "user.email=test@example.com",
+                "commit", "-q", "-m", "initial"));
+    }
+
+    private File write(String path) throws IOException {
+        Path file = repo.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "class " + file.getFileName().toString().replace(".java", "") + " { }\n",
+                StandardCharsets.UTF_8);
+        return file.toFile();
+    }
+
+    private boolean git(String... args) throws Exception {
+        String[] command = new String[args.length + 1];
+        command[0] = "git";
+        System.arraycopy(args, 0, command, 1, args.length);
+        try {
+            Process process = new ProcessBuilder(command).directory(repo.toFile()).redirectErrorStream(true).start();
+            process.getInputStream().readAllBytes();
+            return process.waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private List<File> changed(String... args) throws Exception {
+        Options options = Options.parse(args);
+        return GitChanges.changedJavaFiles(options);
+    }
+
+    @Test
+    public void changedFilesAreFilteredLikeDiscovery() throws Exception {
+        File added = write("src/p/Added.java");
+        write("src/build/Generated.java");
+        write("src/p/Skipped.java");
+        File extra = write("extra/Extra.java");
+
+        assertEquals(List.of(added, extra), changed(repo.resolve("src").toString(), "NullabilityRefactoring",
+                repo.resolve("extra").toString(), "--since", "HEAD", "--exclude", "**/Skipped.java"));
+    }
+
+    @Test
+    public void singleFileIsKeptOnlyIfChanged() throws Exception {
+        File added = write("src/Added.java");
+        assertEquals(List.of(added), changed(added.getPath(), "NullabilityRefactoring", "--since", "HEAD"));
+        assertEquals(List.of(), changed(repo.resolve("src/Old.java").toString(), "NullabilityRefactoring",
+                "--since", "HEAD"));
+    }
+}
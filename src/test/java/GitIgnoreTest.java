@@ -0,0 +1,116 @@
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GitIgnoreTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Path root;
+
+    @Before
+    public void setRoot() {
+        root = temp.getRoot().toPath();
+    }
+
+    private GitIgnore rules(Path dir, String... lines) throws IOException {
+        Files.createDirectories(dir);
+        Files.write(dir.resolve(".gitignore"), List.of(lines));
+        return GitIgnore.EMPTY.forDirectory(dir);
+    }
+
+    @Test
+    public void noGitIgnoreFileKeepsRules() throws IOException {
+        assertSame(GitIgnore.EMPTY, GitIgnore.EMPTY.forDirectory(root));
+        assertFalse(GitIgnore.EMPTY.isIgnored(root.resolve("A.java"), false));
+    }
+
+    @Test
+    public void unanchoredPatternMatchesNameAtAnyDepth() throws IOException {
+        GitIgnore ignore = rules(root, "*.class", "# a comment", "");
+        assertTrue(ignore.isIgnored(root.resolve("A.class"), false));
+        assertTrue(ignore.isIgnored(root.resolve("a/b/A.class"), false));
+        assertFalse(ignore.isIgnored(root.resolve("A.java"), false));
+    }
+
+    @Test
+    public void leadingSlashAnchorsToDirectory() throws IOException {
+        GitIgnore ignore = rules(root, "/out");
+        assertTrue(ignore.isIgnored(root.resolve("out"), true));
+        assertFalse(ignore.isIgnored(root.resolve("src/out"), true));
+    }
+
+    @Test
+    public void innerSlashAnchorsToDirectory() throws IOException {
+        GitIgnore ignore = rules(root, "src/gen");
+        assertTrue(ignore.isIgnored(root.resolve("src/gen"), true));
+        assertFalse(ignore.isIgnored(root.resolve("lib/src/gen"), true));
+    }
+
+    @Test
+    public void trailingSlashMatchesDirectoriesOnly() throws IOException {
+        GitIgnore ignore = rules(root, "build/");
+        assertTrue(ignore.isIgnored(root.resolve("build"), true));
+        assertTrue(ignore.isIgnored(root.resolve("a/build"), true));
+        assertFalse(ignore.isIgnored(root.resolve("build"), false));
+    }
+
+    @Test
+    public void lastMatchingRuleWins() throws IOException {
+        GitIgnore ignore = rules(root, "*.java", "!Keep.java");
+        assertTrue(ignore.isIgnored(root.resolve("A.java"), false));
+        assertFalse(ignore.isIgnored(root.resolve("Keep.java"), false));
+
+        ignore = rules(root, "!Keep.java", "*.java");
+        assertTrue(ignore.isIgnored(root.resolve("Keep.java"), false));
+    }
+
+    @Test
+    public void doubleStarMatchesZeroOrMoreDirectories() throws IOException {
+        GitIgnore ignore = rules(root, "**/generated", "a/**/b");
+        assertTrue(ignore.isIgnored(root.resolve("generated"), true));
+        assertTrue(ignore.isIgnored(root.resolve("x/y/generated"), true));
+        assertTrue(ignore.isIgnored(root.resolve("a/b"), true));
+        assertTrue(ignore.isIgnored(root.resolve("a/x/y/b"), true));
+        assertFalse(ignore.isIgnored(root.resolve("c/b"), true));
+    }
+
+    @Test
+    public void characterClassesAndWildcards() throws IOException {
+        GitIgnore ignore = rules(root, "Test[0-9].java", "?.tmp");
+        assertTrue(ignore.isIgnored(root.resolve("Test1.java"), false));
+        assertFalse(ignore.isIgnored(root.resolve("TestA.java"), false));
+        assertTrue(ignore.isIgnored(root.resolve("x.tmp"), false));
+        assertFalse(ignore.isIgnored(root.resolve("xy.tmp"), false));
+    }
+
+    @Test
+    public void bracesAreLiteral() throws IOException {
+        GitIgnore ignore = rules(root, "{a,b}.java");
+        assertTrue(ignore.isIgnored(root.resolve("{a,b}.java"), false));
+        assertFalse(ignore.isIgnored(root.resolve("a.java"), false));
+    }
+
+    @Test
+    public void nestedFileAddsToParentRules() throws IOException {
+        GitIgnore parent = rules(root, "*.java");
+        Path sub = root.resolve("sub");
+        Files.createDirectories(sub);
+        Files.write(sub.resolve(".gitignore"), List.of("!Keep.java", "/Local.txt"));
+        GitIgnore nested = parent.forDirectory(sub);
+
+        assertTrue(nested.isIgnored(sub.resolve("A.java"), false));
+        assertFalse(nested.isIgnored(sub.resolve("Keep.java"), false));
+        assertTrue(nested.isIgnored(sub.resolve("Local.txt"), false));
+        // Rules of the nested file do not reach outside its directory
+        assertTrue(nested.isIgnored(root.resolve("Keep.java"), false));
+        assertFalse(nested.isIgnored(root.resolve("Local.txt"), false));
+    }
+}
@@ -0,0 +1,111 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.junit.Test;
+
+public class HeapBudgetTest {
+
+    private static final long SMALL = HeapBudget.estimate(0);
+    private static final long LARGE_SOURCE = 100_000;
+    private static final long LARGE = HeapBudget.estimate(LARGE_SOURCE);
+
+    private final List<String> admitted = Collections.synchronizedList(new ArrayList<>());
+
+    private Thread acquire(HeapBudget budget, long sourceBytes, String name) {
+        Thread thread = new Thread(() -> {
+            try {
+                budget.acquire(sourceBytes);
+                admitted.add(name);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        while (thread.getState() != Thread.State.WAITING) {
+            assertTrue(thread.isAlive());
+            Thread.sleep(1);
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void admitsWhatFits() throws InterruptedException {
+        HeapBudget budget = new HeapBudget(3 * SMALL);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(SMALL, budget.acquire(0));
+        }
+        assertTrue(budget.format(), budget.format().endsWith(", 0 files delayed"));
+    }
+
+    @Test(timeout = 10_000)
+    public void admitsOversizedFileWhenIdle() throws InterruptedException {
+        HeapBudget budget = new HeapBudget(SMALL);
+        assertEquals(LARGE, budget.acquire(LARGE_SOURCE));
+    }
+
+    @Test(timeout = 10_000)
+    public void waitingFileIsNotOvertakenBySmallerOnes() throws InterruptedException {
+        HeapBudget budget = new HeapBudget(LARGE);
+        long first = budget.acquire(0);
+
+        Thread large = acquire(budget, LARGE_SOURCE, "large");
+        awaitWaiting(large);
+        // Fits beside the first file, but would delay the large one further
+        Thread small = acquire(budget, 0, "small");
+        awaitWaiting(small);
+        assertEquals(List.of(), admitted);
+
+        budget.release(first);
+        large.join();
+        assertEquals(List.of("large"), admitted);
+        awaitWaiting(small);
+
+        budget.release(LARGE);
+        small.join();
+        assertEquals(List.of("large", "small"), admitted);
+        assertTrue(budget.format(), budget.format().endsWith(", 2 files delayed"));
+    }
+
+    @Test(timeout = 10_000)
+    public void abandonedParseDoesNotHoldBackOversizedFile() throws InterruptedException {
+        HeapBudget budget = new HeapBudget(LARGE);
+        long reservation = budget.acquire(LARGE_SOURCE);
+        CountDownLatch finish = new CountDownLatch(1);
+        FileDeadline deadline = FileDeadline.start(1);
+        CompletableFuture<Object> parse = deadline.submit(() -> {
+            finish.await();
+            return null;
+        });
+        assertThrows(OperationCanceledException.class, () -> deadline.await(parse));
+        budget.release(reservation, parse);
+
+        // Nothing is running, although the abandoned parse still holds the whole budget
+        assertEquals(LARGE, budget.acquire(LARGE_SOURCE));
+        Thread small = acquire(budget, 0, "small");
+        awaitWaiting(small);
+        budget.release(LARGE);
+        small.join();
+
+        // Once the parse finishes, a second small file fits beside the first
+        finish.countDown();
+        Thread second = acquire(budget, 0, "second");
+        second.join();
+        assertEquals(List.of("small", "second"), admitted);
+    }
+
+    @Test
+    public void budgetInMegabytesDoesNotOverflow() {
+        Options options = new Options();
+        options.heapBudgetMegabytes = 4096;
+        assertTrue(HeapBudget.forOptions(options).format().startsWith("Heap budget 4096 MB"));
+    }
+}
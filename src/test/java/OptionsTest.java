@@ -0,0 +1,106 @@
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OptionsTest {
+
+    private static final String MODULE = "NullabilityRefactoring";
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private static String rejection(String... args) {
+        return assertThrows(IllegalArgumentException.class, () -> Options.parse(args)).getMessage();
+    }
+
+    @Test
+    public void parsesPathModuleAndThreads() {
+        Options options = Options.parse(new String[] { "src", "--threads", "4", MODULE });
+        assertEquals("src", options.targetDir);
+        assertEquals(List.of(MODULE), options.modules);
+        assertEquals(4, options.threads);
+    }
+
+    @Test
+    public void rejectsMalformedArguments() {
+        assertTrue(rejection("src").startsWith("Expected <sourceDirPath> <refactoringModule>"));
+        assertEquals("Missing value for --threads", rejection("src", MODULE, "--threads"));
+        assertEquals("Expected a positive integer for --threads: 0", rejection("src", MODULE, "--threads", "0"));
+        assertEquals("Unknown option: --bogus", rejection("src", MODULE, "--bogus"));
+        assertEquals("Expected a revision for --since: --output=x", rejection("src", MODULE, "--since", "--output=x"));
+    }
+
+    @Test
+    public void mergesModuleListsWithoutDuplicates() {
+        Options options = Options.parse(new String[] {
+            "src", MODULE + ",SimplifyNullCheckRefactoring", "--module", MODULE, "--module", "WrapWithCheckNotNullRefactoring"
+        });
+        // --module options are taken as they are parsed, the positional list after them
+        assertEquals(List.of(MODULE, "WrapWithCheckNotNullRefactoring", "SimplifyNullCheckRefactoring"), options.modules);
+        assertEquals("Unknown refactoring: Bogus", rejection("src", MODULE + ",Bogus"));
+    }
+
+    @Test
+    public void rejectsConflictingModes() {
+        assertEquals("--fixpoint cannot be combined with --diff or --diff-file",
+                rejection("src", MODULE, "--fixpoint", "--diff-file", "out.diff"));
+        assertEquals("--fixpoint cannot be combined with --watch", rejection("src", MODULE, "--max-passes", "3", "--watch"));
+        assertEquals("--quiet cannot be combined with --verbose", rejection("src", MODULE, "--quiet", "--verbose"));
+        assertEquals("--resume cannot be combined with --diff, --watch or --no-checkpoint",
+                rejection("src", MODULE, "--resume", "--no-checkpoint"));
+        assertEquals("--workers cannot be combined with --batch, --pipeline or --watch",
+                rejection("src", MODULE, "--workers", "2", "--pipeline"));
+    }
+
+    @Test
+    public void validatesShards() {
+        assertEquals("--shard-by-size needs --shard <i>/<n>", rejection("src", MODULE, "--shard-by-size"));
+        for (String shard : new String[] { "0/2", "3/2", "1/0", "1", "a/b", "/2" }) {
+            assertEquals("Expected --shard <i>/<n> with 1 <= i <= n: " + shard, rejection("src", MODULE, "--shard", shard));
+        }
+        Options options = Options.parse(new String[] { "src", MODULE, "--shard", "2/3", "--shard-by-size" });
+        assertEquals(2, options.shard.index);
+        assertEquals(3, options.shard.count);
+        assertTrue(options.shard.bySize);
+    }
+
+    @Test
+    public void factsCacheIsOptIn() {
+        assertFalse(Options.parse(new String[] { "src", MODULE }).factsCache);
+        assertTrue(Options.parse(new String[] { "src", MODULE, "--facts-cache" }).factsCache);
+        Options options = Options.parse(new String[] { "src", MODULE, "--facts-cache-mb", "8" });
+        assertTrue(options.factsCache);
+        assertEquals(8, options.factsCacheMegabytes);
+    }
+
+    @Test
+    public void sourceRootHoldsEverySourcePath() throws IOException {
+        File dir = temp.newFolder("project", "src", "main");
+        File file = temp.newFile("project/src/main/A.java");
+        File other = temp.newFolder("project", "gen");
+        Path project = temp.getRoot().toPath().resolve("project").toAbsolutePath();
+        assertEquals(dir.toPath().toAbsolutePath(), Options.parse(new String[] { file.getPath(), MODULE }).sourceRoot());
+        assertEquals(project,
+                Options.parse(new String[] { file.getPath(), MODULE, other.getPath() }).sourceRoot());
+        assertEquals(project,
+                Options.parse(new String[] { other.getPath(), MODULE, dir.getPath() }).sourceRoot());
+    }
+
+    @Test
+    public void stateDirOfSingleFileIsBesideIt() throws IOException {
+        File dir = temp.newFolder("src");
+        File file = temp.newFile("src/A.java");
+        assertEquals(dir.toPath().resolve(".vgrtool"),
+                Options.parse(new String[] { dir.getPath(), MODULE }).stateDir());
+        assertEquals(dir.toPath().toAbsolutePath().resolve(".vgrtool"),
+                Options.parse(new String[] { file.getPath(), MODULE }).stateDir());
+        assertEquals(temp.getRoot().toPath().resolve("state"),
+                Options.parse(new String[] { file.getPath(), MODULE, "--state-dir", temp.getRoot() + "/state" }).stateDir());
+    }
+}
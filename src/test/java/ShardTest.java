@@ -0,0 +1,113 @@
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ShardTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Path root;
+
+    @Before
+    public void setRoot() {
+        root = temp.getRoot().toPath();
+    }
+
+    // Files of 1 to 101 bytes spread over a few directories, in discovery order
+    private List<File> createFiles(Path dir, int count) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path file = dir.resolve("p" + i % 4).resolve("F" + i + ".java");
+            Files.createDirectories(file.getParent());
+            Files.write(file, new byte[i * 37 % 101 + 1]);
+            files.add(file.toFile());
+        }
+        return files;
+    }
+
+    private static List<File> select(Shard shard, List<File> files, Path root) throws IOException {
+        List<File> selected = new ArrayList<>();
+        shard.select(files::forEach, root).forEach(selected::add);
+        return selected;
+    }
+
+    private static void assertPartition(List<File> files, List<List<File>> shards) {
+        List<File> all = new ArrayList<>();
+        for (List<File> shard : shards) {
+            // Each shard keeps discovery order
+            List<File> ordered = new ArrayList<>(shard);
+            ordered.sort(Comparator.comparingInt(files::indexOf));
+            assertEquals(ordered, shard);
+            all.addAll(shard);
+        }
+        assertEquals(files.size(), all.size());
+        assertEquals(new HashSet<>(files), new HashSet<>(all));
+    }
+
+    @Test
+    public void hashShardsPartitionFiles() throws IOException {
+        List<File> files = createFiles(root, 60);
+        List<List<File>> shards = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            shards.add(select(new Shard(i, 3, false), files, root));
+        }
+        assertPartition(files, shards);
+        for (List<File> shard : shards) {
+            assertFalse(shard.isEmpty());
+        }
+    }
+
+    @Test
+    public void sizeShardsPartitionFilesEvenly() throws IOException {
+        List<File> files = createFiles(root, 60);
+        List<List<File>> shards = new ArrayList<>();
+        long largest = 0;
+        for (File file : files) {
+            largest = Math.max(largest, file.length());
+        }
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 1; i <= 4; i++) {
+            List<File> shard = select(new Shard(i, 4, true), files, root);
+            shards.add(shard);
+            long bytes = 0;
+            for (File file : shard) {
+                bytes += file.length();
+            }
+            min = Math.min(min, bytes);
+            max = Math.max(max, bytes);
+        }
+        assertPartition(files, shards);
+        assertTrue(max - min <= largest);
+    }
+
+    @Test
+    public void assignmentDoesNotDependOnCheckoutLocation() throws IOException {
+        Path first = root.resolve("first");
+        Path second = root.resolve("elsewhere/second");
+        List<File> firstFiles = createFiles(first, 30);
+        List<File> secondFiles = createFiles(second, 30);
+        for (boolean bySize : new boolean[] { false, true }) {
+            for (int i = 1; i <= 3; i++) {
+                Shard shard = new Shard(i, 3, bySize);
+                List<String> firstNames = new ArrayList<>();
+                for (File file : select(shard, firstFiles, first)) {
+                    firstNames.add(first.relativize(file.toPath()).toString());
+                }
+                List<String> secondNames = new ArrayList<>();
+                for (File file : select(shard, secondFiles, second)) {
+                    secondNames.add(second.relativize(file.toPath()).toString());
+                }
+                assertEquals(firstNames, secondNames);
+            }
+        }
+    }
+}
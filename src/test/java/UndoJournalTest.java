@@ -0,0 +1,109 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class UndoJournalTest {
+
+    private static final byte[] ORIGINAL = "class A { }\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] REWRITTEN = "class A { int x; }\n".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Path stateDir;
+    private File file;
+
+    @Before
+    public void createFile() throws IOException {
+        stateDir = temp.getRoot().toPath().resolve("state");
+        file = temp.newFile("A.java");
+        Files.write(file.toPath(), ORIGINAL);
+    }
+
+    private int rollback(String runId) {
+        return UndoJournal.rollback(new String[] {
+            "--rollback", runId, temp.getRoot().getPath(), "--state-dir", stateDir.toString()
+        });
+    }
+
+    @Test
+    public void originalIsOnDiskWhenSaveReturns() throws IOException {
+        UndoJournal journal = UndoJournal.open(stateDir);
+        journal.save(file, ContentHash.of(ORIGINAL), ContentHash.of(REWRITTEN), ORIGINAL);
+
+        // Read before the journal is closed, as after a crash
+        List<String> run = Files.readAllLines(stateDir.resolve("undo/runs/" + journal.runId + ".tsv"));
+        assertEquals(List.of(ContentHash.of(ORIGINAL) + "\t" + ContentHash.of(REWRITTEN) + "\t" + Manifest.key(file)), run);
+        assertTrue(Files.readString(stateDir.resolve("undo/blobs.tsv")).startsWith(ContentHash.of(ORIGINAL) + "\t0\t"));
+        journal.close();
+        assertEquals(1, journal.files());
+    }
+
+    @Test
+    public void rollbackRestoresReplacedFile() throws IOException {
+        UndoJournal journal = UndoJournal.open(stateDir);
+        journal.save(file, ContentHash.of(ORIGINAL), ContentHash.of(REWRITTEN), ORIGINAL);
+        Files.write(file.toPath(), REWRITTEN);
+        journal.close();
+
+        assertEquals(0, rollback(journal.runId));
+        assertArrayEquals(ORIGINAL, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void rollbackLeavesFileThatWasNeverReplaced() throws IOException {
+        UndoJournal journal = UndoJournal.open(stateDir);
+        journal.save(file, ContentHash.of(ORIGINAL), ContentHash.of(REWRITTEN), ORIGINAL);
+        journal.close();
+
+        assertEquals(0, rollback(journal.runId));
+        assertArrayEquals(ORIGINAL, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void rollbackKeepsLaterEdits() throws IOException {
+        UndoJournal journal = UndoJournal.open(stateDir);
+        journal.save(file, ContentHash.of(ORIGINAL), ContentHash.of(REWRITTEN), ORIGINAL);
+        journal.close();
+        byte[] edited = "class A { int y; }\n".getBytes(StandardCharsets.UTF_8);
+        Files.write(file.toPath(), edited);
+
+        assertEquals(1, rollback(journal.runId));
+        assertArrayEquals(edited, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test(timeout = 10_000)
+    public void truncatedBlobFails() throws Exception {
+        byte[] data = new byte[100_000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31 % 251);
+        }
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            deflated.write(chunk, 0, deflater.deflate(chunk));
+        }
+        deflater.end();
+        byte[] blob = deflated.toByteArray();
+
+        assertArrayEquals(data, UndoJournal.inflate(blob, data.length));
+        byte[] truncated = Arrays.copyOf(blob, blob.length / 2);
+        assertThrows(IOException.class, () -> UndoJournal.inflate(truncated, data.length));
+        // A blob shorter than its index entry says
+        assertThrows(IOException.class, () -> UndoJournal.inflate(blob, data.length + 1));
+    }
+}
@@ -0,0 +1,118 @@
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class UnifiedDiffTest {
+
+    private static final String[] LINES = { "a\n", "b\n", "{\n", "}\n", "  x = y;\n", "\n", "c" };
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void noRegionsGiveNoDiff() {
+        assertEquals("", UnifiedDiff.format("A.java", "a\nb\n", "a\nb\n", List.of()));
+    }
+
+    @Test
+    public void unchangedRegionGivesNoDiff() {
+        assertEquals("", UnifiedDiff.format("A.java", "a\nb\n", "a\nb\n", List.of(new int[] { 0, 1, 0, 1 })));
+    }
+
+    @Test
+    public void changeWithinLineReplacesWholeLine() {
+        String original = "1\n2\n3\n4\n5\n6\n7\n8\n9\n";
+        String revised = "1\n2\n3\n4\nfive\n6\n7\n8\n9\n";
+        String diff = UnifiedDiff.format("A.java", original, revised, List.of(new int[] { 8, 9, 8, 12 }));
+        assertEquals("--- a/A.java\n+++ b/A.java\n@@ -2,7 +2,7 @@\n 2\n 3\n 4\n-5\n+five\n 6\n 7\n 8\n", diff);
+    }
+
+    @Test
+    public void missingFinalNewlineIsMarked() {
+        String diff = UnifiedDiff.format("A.java", "a\nb", "a\nc", List.of(new int[] { 2, 3, 2, 3 }));
+        assertEquals("--- a/A.java\n+++ b/A.java\n@@ -1,2 +1,2 @@\n a\n-b\n\\ No newline at end of file\n"
+                + "+c\n\\ No newline at end of file\n", diff);
+    }
+
+    // Random rewrites of random sources, each diff applied with git apply and patch, which
+    // must reproduce the revised source exactly
+    @Test
+    public void randomDiffsApply() throws Exception {
+        assumeTrue(available("git", "--version") && available("patch", "--version"));
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            StringBuilder original = new StringBuilder();
+            int lineCount = random.nextInt(15);
+            for (int i = 0; i < lineCount; i++) {
+                original.append(LINES[random.nextInt(LINES.length - 1)]);
+            }
+            if (random.nextInt(5) == 0) {
+                original.append(LINES[LINES.length - 1]);
+            }
+
+            // Disjoint, possibly adjacent or empty regions, some replaced by what they held
+            int[] cuts = new int[2 * random.nextInt(5)];
+            for (int i = 0; i < cuts.length; i++) {
+                cuts[i] = random.nextInt(original.length() + 1);
+            }
+            Arrays.sort(cuts);
+            StringBuilder revised = new StringBuilder();
+            List<int[]> regions = new ArrayList<>();
+            int copied = 0;
+            for (int i = 0; i < cuts.length; i += 2) {
+                revised.append(original, copied, cuts[i]);
+                String replacement;
+                if (random.nextInt(4) == 0) {
+                    replacement = original.substring(cuts[i], cuts[i + 1]);
+                } else {
+                    StringBuilder text = new StringBuilder();
+                    for (int n = random.nextInt(3); n > 0; n--) {
+                        text.append(LINES[random.nextInt(LINES.length)]);
+                    }
+                    replacement = text.toString();
+                }
+                regions.add(new int[] { cuts[i], cuts[i + 1], revised.length(), revised.length() + replacement.length() });
+                revised.append(replacement);
+                copied = cuts[i + 1];
+            }
+            revised.append(original, copied, original.length());
+
+            String diff = UnifiedDiff.format("A.java", original.toString(), revised.toString(), regions);
+            String message = "original:\n" + original + "\nrevised:\n" + revised + "\ndiff:\n" + diff;
+            if (original.toString().equals(revised.toString())) {
+                assertEquals(message, "", diff);
+                continue;
+            }
+            assertEquals(message, revised.toString(), apply(original.toString(), diff, "git", "apply", "patch.diff"));
+            assertEquals(message, revised.toString(),
+                    apply(original.toString(), diff, "patch", "-s", "-p1", "-F0", "-i", "patch.diff"));
+        }
+    }
+
+    private String apply(String original, String diff, String... command) throws Exception {
+        Path dir = temp.getRoot().toPath();
+        Files.writeString(dir.resolve("A.java"), original, StandardCharsets.UTF_8);
+        Files.writeString(dir.resolve("patch.diff"), diff, StandardCharsets.UTF_8);
+        Process process = new ProcessBuilder(command).directory(dir.toFile()).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertEquals(command[0] + " failed: " + output, 0, process.waitFor());
+        return Files.readString(dir.resolve("A.java"), StandardCharsets.UTF_8);
+    }
+
+    private static boolean available(String... command) {
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            process.getInputStream().readAllBytes();
+            return process.waitFor() == 0;
+        } catch (IOException | InterruptedException e) {
+            return false;
+        }
+    }
+}